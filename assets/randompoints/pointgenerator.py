@@ -1,2 +0,0 @@
-# this Python script formerly generated a text file containing random, spaced points in a tesselated grid for antialiasing
-# I accidentally overwrote it (though the generated text file still exists)
\ No newline at end of file
@@ -0,0 +1,178 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/* class BuddhabrotCalculator:
+ * - calculates the orbit density (Buddhabrot) of a view: random points c are iterated as in FractalCalculator.MandelbrotPoint, and
+ *   every z_n of each orbit that escapes is counted at the pixel it lands on (except z_1 = c, whose density is only that of the samples)
+ *     - points in the set are rejected cheaply by mandelTest and periodicity checking (within MandelbrotPoint), and points that
+ *       escape are iterated a second time to count their z_n, so no orbit is ever stored
+ *     - the density is symmetric about the real axis, so c is only sampled above it, and each z_n is counted with its conjugate
+ *     - samples are deterministic: chunk n of CHUNK_SAMPLES samples always uses the same random points
+ * - accumulates in rounds of chunks calculated in parallel on a FractalScheduler, so an image can be shown after each round
+ *     - each task counts into a striped buffer that no other running task is using, so the hot loop writes plain ints without any
+ *       sharing between threads; the buffers are added into the density between rounds, while no task is running
+ *     - rounds double in size from FIRST_ROUND_SAMPLES up to MAX_ROUND_SAMPLES, so the first image comes quickly
+ * - uses double precision whatever the view's precision, and only the view's framing, maxIter, escape radius, and periodicity checking
+ */
+
+/* TODO:
+ * - sample c where orbits reach the view (e.g. Metropolis-Hastings), since most orbits miss the view once it's zoomed in
+ * - add a Buddhabrot mode to FractalRenderer
+ */
+
+public class BuddhabrotCalculator {
+
+	static int CHUNK_SAMPLES = 1 << 14;				// samples per task
+	static long FIRST_ROUND_SAMPLES = 1 << 18;		// samples of the first round
+	static long MAX_ROUND_SAMPLES = 1L << 26;		// largest round (rounds double in size until they reach this)
+	static double SAMPLE_RADIUS = 2;				// c is sampled from [-SAMPLE_RADIUS, SAMPLE_RADIUS] x [0, SAMPLE_RADIUS]
+	static long SEED = 0x5DEECE66DL;
+
+	// calculation parameters
+	FractalView view;
+	int maxIter;
+	double escapeRadiusSquared;
+	double periodicityToleranceSquared;
+
+	// map from fractal space to image space (pixel x = (r - originR)*mapXR + (i - originI)*mapXI, likewise for y)
+	double originR, originI;
+	double mapXR, mapXI;
+	double mapYR, mapYI;
+
+	// accumulation
+	long[] density;				// number of z_n counted at each pixel (j*widthPixels + i), up to the last finished round
+	long samples;				// number of samples in density
+	long nextChunk;				// index of the first chunk of the next round
+	ConcurrentLinkedQueue<int[]> freeStripes = new ConcurrentLinkedQueue<int[]>();	// buffers not in use by a running task
+	List<int[]> stripes = new ArrayList<int[]>();		// every buffer, to add into density between rounds
+	LongAdder progress;			// number of chunks calculated, for progress reporting
+	long[] counts;				// totals of the FractalCalculator.COUNT_ values
+
+	// constructor: assign the view, and derive the inverse of its image-to-fractal map
+	BuddhabrotCalculator(FractalView view, LongAdder progress, long[] counts) {
+		this.view = view;
+		this.progress = progress;
+		this.counts = counts;
+		maxIter = view.maxIter;
+		escapeRadiusSquared = view.escapeRadius*view.escapeRadius;
+		periodicityToleranceSquared = view.periodicityTolerance*view.periodicityTolerance;
+
+		// (the step vectors are orthogonal with length pixelSize, so the inverse is their transpose over pixelSize^2)
+		double p2 = view.pixelSize*view.pixelSize;
+		originR = view.centerX + view.originR;
+		originI = view.centerY + view.originI;
+		mapXR = view.stepXR/p2;
+		mapXI = view.stepXI/p2;
+		mapYR = view.stepYR/p2;
+		mapYI = view.stepYI/p2;
+		density = new long[view.widthPixels*view.heightPixels];
+	}
+
+	// calculate a round of about nSamples samples (a whole number of chunks) on a scheduler, and add them into density
+	// returns false if the calculation was cancelled since startGeneration (the round's samples are then dropped)
+	boolean calculateRound(final FractalScheduler scheduler, final int startGeneration, long nSamples) {
+		final long firstChunk = nextChunk;
+		int nChunks = (int)Math.max(1, nSamples/CHUNK_SAMPLES);
+		scheduler.forEachRow(nChunks, new IntConsumer() {
+			public void accept(int chunk) {
+				if(scheduler.generation != startGeneration) {
+					return;
+				}
+				int[] stripe = freeStripes.poll();
+				if(stripe == null) {
+					stripe = new int[density.length];
+					synchronized(stripes) {
+						stripes.add(stripe);
+					}
+				}
+				long[] localCounts = new long[FractalCalculator.N_COUNTS];
+				traceChunk(firstChunk + chunk, stripe, localCounts);
+				freeStripes.add(stripe);
+				progress.increment();
+				scheduler.metrics.addWork(CHUNK_SAMPLES, localCounts);
+				synchronized(counts) {
+					for(int c = 0; c < FractalCalculator.N_COUNTS; c++) {
+						counts[c] += localCounts[c];
+					}
+				}
+			}
+		});
+		if(scheduler.generation != startGeneration) {
+			return false;
+		}
+
+		// (every task has finished, so no buffer is being written)
+		for(int[] stripe : stripes) {
+			for(int p = 0; p < density.length; p++) {
+				density[p] += stripe[p];
+				stripe[p] = 0;
+			}
+		}
+		samples += (long)nChunks*CHUNK_SAMPLES;
+		nextChunk += nChunks;
+		return true;
+	}
+
+	// sample the points of a chunk, counting the z_n of those that escape into stripe
+	void traceChunk(long chunk, int[] stripe, long[] localCounts) {
+		SplittableRandom random = new SplittableRandom(SEED + chunk).split();	// (consecutive seeds alone would give overlapping sequences)
+		int widthPixels = view.widthPixels;
+		int heightPixels = view.heightPixels;
+		for(int s = 0; s < CHUNK_SAMPLES; s++) {
+			double cr = (2*random.nextDouble() - 1)*SAMPLE_RADIUS;
+			double ci = random.nextDouble()*SAMPLE_RADIUS;
+			if(FractalCalculator.MandelbrotPoint(cr, ci, maxIter, escapeRadiusSquared, periodicityToleranceSquared, localCounts) < 0) {
+				continue;	// in the set, or reached maxIter
+			}
+
+			// iterate again from z_1, counting each later z_n (and its conjugate) up to the one that escapes
+			double r = cr;
+			double i = ci;
+			while(true) {
+				double rt = r;
+				r = rt*rt - i*i + cr;
+				i = 2*rt*i + ci;
+				if(r*r + i*i >= escapeRadiusSquared) {
+					break;
+				}
+				double dr = r - originR;
+				double x = dr*mapXR + (i - originI)*mapXI + 0.5;	// (pixel centers are at whole coordinates)
+				double y = dr*mapYR + (i - originI)*mapYI + 0.5;
+				if(x >= 0 && x < widthPixels && y >= 0 && y < heightPixels) {
+					stripe[(int)y*widthPixels + (int)x]++;
+				}
+				x = dr*mapXR + (-i - originI)*mapXI + 0.5;
+				y = dr*mapYR + (-i - originI)*mapYI + 0.5;
+				if(x >= 0 && x < widthPixels && y >= 0 && y < heightPixels) {
+					stripe[(int)y*widthPixels + (int)x]++;
+				}
+			}
+		}
+	}
+
+	// largest count in density
+	long getMaxDensity() {
+		long max = 0;
+		for(long count : density) {
+			max = Math.max(max, count);
+		}
+		return max;
+	}
+
+	// colour row j of the density into pixels, starting at offset, scaled so that a count of maxDensity is white (with a square-root
+	// curve, so faint orbits stay visible)
+	void colourRow(int j, long maxDensity, int[] pixels, int offset) {
+		double scale = 1.0/Math.max(1, maxDensity);
+		for(int i = 0; i < view.widthPixels; i++) {
+			double t = Math.sqrt(density[j*view.widthPixels + i]*scale);
+			int red = (int)(255*Math.min(1, 1.2*t));
+			int green = (int)(255*t);
+			int blue = (int)(255*Math.min(1, 1.5*t));
+			pixels[offset + i] = red << 16 | green << 8 | blue;
+		}
+	}
+}
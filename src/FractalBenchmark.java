@@ -0,0 +1,356 @@
+import java.awt.event.ComponentListener;
+import java.awt.geom.Point2D;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/* class FractalBenchmark:
+ * - times the hot paths of calculation and colouring without a display, so optimizations can be judged by numbers
+ *     - kernels: MandelbrotPoint on interior, boundary, and quickly escaping points, and the other precisions on a boundary point
+ *     - mandelTest, FractalLabel.getIterationRGB, FractalPalette.getRGB, and the antialiasing median (FractalCalculator.getPixelValue) on batches of inputs
+ *     - whole frames: FractalScheduler.calculate at fixed views, with various thread counts, tile sizes, and solvers, and
+ *       FractalLabel.renderImage with and without antialiasing, and with log and histogram colouring
+ * - each benchmark is warmed up, then timed over several rounds; the mean time per element and its spread between rounds are printed
+ *     - benchmarks that need a thread pool or a calculated frame create them in setUp() and release them in tearDown(), so only the
+ *       benchmarks that run hold any
+ * - usage: java -Djava.awt.headless=true FractalBenchmark [--quick] [name filter ...]
+ *     - only benchmarks whose names contain one of the filters are run (all of them if there are no filters)
+ *     - --quick shortens warm-up and measurement, for a rough comparison
+ */
+
+public class FractalBenchmark {
+
+	// timing
+	static double WARMUP_SECONDS = 1;	// time to run each benchmark before measuring
+	static double ROUND_SECONDS = 0.5;	// shortest time of a measured round
+	static int ROUNDS = 5;				// number of measured rounds
+
+	// benchmark inputs
+	static int BATCH_SIZE = 4096;		// inputs per run of the batched benchmarks
+	static int KERNEL_MAXITER = 1000;	// maxIter of the kernel benchmarks
+	static int FRAME_WIDTH = 320;		// size of the whole-frame benchmarks (pixels)
+	static int FRAME_HEIGHT = 240;
+
+	// sum of benchmark results, printed at the end so that the JIT can't remove the work
+	static double sink;
+
+	/* class Benchmark:
+	 * - one timed operation, processing a number of elements (points, values, pixels, ...) per run
+	 */
+	abstract static class Benchmark {
+		String name;	// name, for filtering and reporting
+		int elements;	// elements processed by one run
+
+		Benchmark(String name, int elements) {
+			this.name = name;
+			this.elements = elements;
+		}
+
+		// create what the operation needs, before it's warmed up (e.g. a thread pool)
+		void setUp() {
+		}
+
+		// perform the operation once, and return a result that depends on all of its work
+		abstract double run();
+
+		// release what setUp() created, once the operation has been timed
+		void tearDown() {
+		}
+	}
+
+	// run the benchmarks selected by the command-line arguments
+	public static void main(String[] args) {
+		List<String> filters = new ArrayList<String>();
+		for(String arg : args) {
+			if(arg.equals("--quick")) {
+				WARMUP_SECONDS = 0.2;
+				ROUND_SECONDS = 0.1;
+				ROUNDS = 3;
+			}
+			else {
+				filters.add(arg);
+			}
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		addKernelBenchmarks(benchmarks);
+		addBatchBenchmarks(benchmarks);
+		addFrameBenchmarks(benchmarks);
+
+		System.out.println(String.format("%s processors, %s warm-up, %s rounds of %s s", Runtime.getRuntime().availableProcessors(),
+				WARMUP_SECONDS, ROUNDS, ROUND_SECONDS));
+		System.out.println(String.format("%-60s %14s %8s %14s", "benchmark", "ns/element", "+/- %", "elements/s"));
+		for(Benchmark benchmark : benchmarks) {
+			boolean selected = filters.isEmpty();
+			for(String filter : filters) {
+				selected |= benchmark.name.contains(filter);
+			}
+			if(selected) {
+				measure(benchmark);
+			}
+		}
+		System.out.println(String.format("(checksum %s)", sink));
+		System.exit(0);
+	}
+
+	// warm up a benchmark, time it over several rounds, and print the mean time per element and its relative standard deviation
+	static void measure(Benchmark benchmark) {
+		benchmark.setUp();
+
+		// warm up, doubling the runs per round until a round takes long enough to time
+		int runs = 1;
+		long warmupEnd = System.nanoTime() + (long)(1e9*WARMUP_SECONDS);
+		while(true) {
+			long start = System.nanoTime();
+			for(int n = 0; n < runs; n++) {
+				sink += benchmark.run();
+			}
+			long elapsed = System.nanoTime() - start;
+			if(System.nanoTime() > warmupEnd && elapsed >= 1e9*ROUND_SECONDS) {
+				break;
+			}
+			if(elapsed < 1e9*ROUND_SECONDS) {
+				runs *= 2;
+			}
+		}
+
+		// measure
+		double[] nanosPerElement = new double[ROUNDS];
+		for(int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for(int n = 0; n < runs; n++) {
+				sink += benchmark.run();
+			}
+			nanosPerElement[round] = (double)(System.nanoTime() - start)/runs/benchmark.elements;
+		}
+		benchmark.tearDown();
+		double mean = 0;
+		for(double t : nanosPerElement) {
+			mean += t/ROUNDS;
+		}
+		double variance = 0;
+		for(double t : nanosPerElement) {
+			variance += (t - mean)*(t - mean)/Math.max(1, ROUNDS - 1);
+		}
+		System.out.println(String.format("%-60s %14.2f %8.1f %14.4g", benchmark.name, mean, 100*Math.sqrt(variance)/mean, 1e9/mean));
+	}
+
+	// single points, with each kernel
+	static void addKernelBenchmarks(List<Benchmark> benchmarks) {
+		final double escapeRadiusSquared = 420.69*420.69;
+		final double tolerance = FractalCalculator.PERIODICITY_TOLERANCE*1e-3;	// periodicity tolerance of a view with 1e-3 pixels
+		final long[] counts = new long[FractalCalculator.N_COUNTS];
+		final double[][] points = {
+			{-0.122, 0.745},			// interior of the period-3 bulb (not caught by mandelTest)
+			{-0.74364, 0.13182},		// near the boundary; escapes after hundreds of iterations
+			{1.5, 1.5},					// escapes immediately
+		};
+		final String[] pointNames = {"interior", "boundary", "fast escape"};
+
+		for(int p = 0; p < points.length; p++) {
+			final double r0 = points[p][0];
+			final double i0 = points[p][1];
+			benchmarks.add(new Benchmark(String.format("kernel/double/%s", pointNames[p]), 1) {
+				double run() {
+					return FractalCalculator.MandelbrotPoint(r0, i0, KERNEL_MAXITER, escapeRadiusSquared, tolerance*tolerance, counts);
+				}
+			});
+			benchmarks.add(new Benchmark(String.format("kernel/double/%s/no periodicity", pointNames[p]), 1) {
+				double run() {
+					return FractalCalculator.MandelbrotPoint(r0, i0, KERNEL_MAXITER, escapeRadiusSquared, 0, counts);
+				}
+			});
+		}
+
+		// other precisions, at the boundary point
+		final double r0 = points[1][0];
+		final double i0 = points[1][1];
+		benchmarks.add(new Benchmark("kernel/float/boundary", 1) {
+			double run() {
+				return FractalCalculator.MandelbrotPointFloat((float)r0, (float)i0, KERNEL_MAXITER, (float)escapeRadiusSquared,
+						(float)(tolerance*tolerance), counts);
+			}
+		});
+		benchmarks.add(new Benchmark("kernel/double-double/boundary", 1) {
+			double run() {
+				return FractalCalculator.MandelbrotPointDoubleDouble(r0, 0, i0, 0, KERNEL_MAXITER, escapeRadiusSquared, tolerance*tolerance, counts);
+			}
+		});
+		final ReferenceOrbit reference = new ReferenceOrbit(new BigDecimal(r0 - 1e-10), new BigDecimal(i0), KERNEL_MAXITER, 420.69,
+				new MathContext(30));
+		benchmarks.add(new Benchmark("kernel/perturbation/boundary", 1) {
+			double run() {
+				return FractalCalculator.MandelbrotPointPerturbed(1e-10, 0, reference, KERNEL_MAXITER, escapeRadiusSquared, tolerance*tolerance, counts);
+			}
+		});
+		final BigDecimal r0Precise = new BigDecimal(r0);
+		final BigDecimal i0Precise = new BigDecimal(i0);
+		final MathContext mc = new MathContext(40);
+		benchmarks.add(new Benchmark("kernel/BigDecimal/boundary", 1) {
+			double run() {
+				return FractalCalculator.MandelbrotPointBigDecimal(r0Precise, i0Precise, KERNEL_MAXITER, escapeRadiusSquared, mc, tolerance*tolerance, counts);
+			}
+		});
+	}
+
+	// batches of points for mandelTest, of values for colouring, and of pixels for the antialiasing median
+	static void addBatchBenchmarks(List<Benchmark> benchmarks) {
+		Random random = new Random(0);
+		final double[] pointsR = new double[BATCH_SIZE];
+		final double[] pointsI = new double[BATCH_SIZE];
+		final double[] values = new double[BATCH_SIZE];
+		for(int n = 0; n < BATCH_SIZE; n++) {
+			pointsR[n] = -2 + 2.5*random.nextDouble();
+			pointsI[n] = -1.25 + 2.5*random.nextDouble();
+			values[n] = random.nextDouble() < 0.2 ? FractalCalculator.REACHED_MAXITER : 1000*random.nextDouble();	// 20% in the set
+		}
+
+		benchmarks.add(new Benchmark("mandelTest", BATCH_SIZE) {
+			double run() {
+				int inSet = 0;
+				for(int n = 0; n < BATCH_SIZE; n++) {
+					inSet += FractalCalculator.mandelTest(pointsR[n], pointsI[n]) ? 1 : 0;
+				}
+				return inSet;
+			}
+		});
+		benchmarks.add(new Benchmark("getIterationRGB", BATCH_SIZE) {
+			double run() {
+				int sum = 0;
+				for(int n = 0; n < BATCH_SIZE; n++) {
+					sum += FractalLabel.getIterationRGB(values[n], FractalLabel.defaultGradient);
+				}
+				return sum;
+			}
+		});
+
+		benchmarks.add(new Benchmark("FractalPalette.getRGB", BATCH_SIZE) {
+			double run() {
+				int sum = 0;
+				for(int n = 0; n < BATCH_SIZE; n++) {
+					sum += FractalLabel.defaultPalette.getRGB(values[n]);
+				}
+				return sum;
+			}
+		});
+
+		// antialiasing median of pixels with 4 and 16 samples, taken from the random values
+		for(final int samples : new int[] {4, 16}) {
+			Point2D.Double[] offsets = new Point2D.Double[samples];
+			Arrays.fill(offsets, new Point2D.Double(0, 0));
+			final FractalView view = new FractalView(BigDecimal.ZERO, BigDecimal.ZERO, 1, 0, BATCH_SIZE/samples, 1, offsets, 100, 2, false, false);
+			final double[] fractal = Arrays.copyOf(values, view.getSampleCount());
+			final double[] scratch = new double[samples];
+			benchmarks.add(new Benchmark(String.format("getPixelValue/%s samples", samples), view.widthPixels) {
+				double run() {
+					double sum = 0;
+					for(int i = 0; i < view.widthPixels; i++) {
+						sum += FractalCalculator.getPixelValue(view, fractal, i, 0, scratch);
+					}
+					return sum;
+				}
+			});
+		}
+	}
+
+	// whole frames at fixed views
+	static void addFrameBenchmarks(List<Benchmark> benchmarks) {
+		String[][] views = {
+			// name, center x, center y, width, maxIter
+			{"overview", "-0.5", "0", "3", "1000"},
+			{"seahorse", "-0.75", "0.1", "0.05", "2000"},
+			{"deep", "-0.743643887037151", "0.131825904205330", "1e-12", "5000"},
+		};
+		int[][] tileAreas = {	// MIN_TILE_AREA, MAX_TILE_AREA
+			{8*8, 32*32},
+			{FractalScheduler.MIN_TILE_AREA, FractalScheduler.MAX_TILE_AREA},
+			{32*32, 128*128},
+		};
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		int[] threadCounts = maxThreads > 1 ? new int[] {1, maxThreads} : new int[] {1};
+
+		for(String[] v : views) {
+			final FractalView view = new FractalView(new BigDecimal(v[1]), new BigDecimal(v[2]), Double.parseDouble(v[3]), 0,
+					FRAME_WIDTH, FRAME_HEIGHT, null, Integer.parseInt(v[4]), 420.69, true, true);
+			for(final int threads : threadCounts) {
+				for(final int solver : new int[] {FractalScheduler.SOLVER_BRUTE_FORCE, FractalScheduler.SOLVER_MARIANI_SILVER}) {
+					for(final int[] tileArea : tileAreas) {
+						String name = String.format("frame/%s/%s/%s threads/tiles %s-%s px", v[0], FractalScheduler.SOLVER_NAMES[solver], threads,
+								tileArea[0], tileArea[1]);
+						benchmarks.add(new Benchmark(name, view.getSampleCount()) {
+							FractalScheduler scheduler;
+
+							void setUp() {
+								view.getReferenceOrbit();	// calculate once, outside the timing
+								scheduler = new FractalScheduler(threads);
+							}
+
+							double run() {
+								FractalScheduler.MIN_TILE_AREA = tileArea[0];
+								FractalScheduler.MAX_TILE_AREA = tileArea[1];
+								double[] fractal = new double[view.getSampleCount()];
+								Arrays.fill(fractal, FractalCalculator.NOT_CALCULATED);
+								FractalCalculator calculator = new FractalCalculator(view, fractal, new LongAdder(), new long[FractalCalculator.N_COUNTS]);
+								calculator.solver = solver;
+								scheduler.calculate(calculator);
+								return fractal[fractal.length/2];
+							}
+
+							void tearDown() {
+								scheduler.shutdown();
+							}
+						});
+					}
+				}
+			}
+		}
+		FractalScheduler.MIN_TILE_AREA = tileAreas[1][0];
+		FractalScheduler.MAX_TILE_AREA = tileAreas[1][1];
+
+		// colouring a calculated frame, with and without antialiasing
+		for(final int samples : new int[] {1, 4}) {
+			for(final boolean histogram : new boolean[] {false, true}) {
+				benchmarks.add(new Benchmark(String.format("renderImage/%s samples%s", samples, histogram ? "/histogram" : ""), FRAME_WIDTH*FRAME_HEIGHT) {
+					FractalLabel label;
+
+					void setUp() {
+						label = createFrameLabel(views[1], samples);
+						label.palette = histogram ? FractalLabel.defaultPalette.withColouring(FractalPalette.COLOURING_HISTOGRAM) : FractalLabel.defaultPalette;
+					}
+
+					double run() {
+						return label.renderImage(label.job.view, label.job.fractal).getRGB(FRAME_WIDTH/2, FRAME_HEIGHT/2);
+					}
+
+					void tearDown() {
+						label.scheduler.shutdown();
+					}
+				});
+			}
+		}
+	}
+
+	// create a FractalLabel of the frame size showing a view (name, center x, center y, width, maxIter), with its job calculated
+	static FractalLabel createFrameLabel(String[] v, int samples) {
+		FractalLabel label = new FractalLabel(null);
+		label.antialiasingType = samples == 1 ? FractalLabel.ANTIALIAS_NONE : FractalLabel.ANTIALIAS_RANDOM;
+		label.antialiasingFactor = samples;
+		label.centerXPrecise = new BigDecimal(v[1]);
+		label.centerYPrecise = new BigDecimal(v[2]);
+		label.width = Double.parseDouble(v[3]);
+		label.maxIter = Integer.parseInt(v[4]);
+		for(ComponentListener listener : label.getComponentListeners()) {
+			label.removeComponentListener(listener);	// (so resizing it doesn't start an update in the background)
+		}
+		label.setSize(FRAME_WIDTH, FRAME_HEIGHT);
+		label.job = new RenderJob(label.createView(), label.scheduler.generation);
+		label.widthPixels = FRAME_WIDTH;
+		label.heightPixels = FRAME_HEIGHT;
+		label.scheduler.calculate(label.job.calculator);
+		return label;
+	}
+}
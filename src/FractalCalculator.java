@@ -1,106 +1,558 @@
-import java.awt.geom.Point2D;
-import java.util.Comparator;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.atomic.LongAdder;
 
 /* class FractalCalculator:
  * - contains static methods for the calculation of the Mandelbrot fractal
  *     - has static fields for special-case return values
- * - implements Runnable to perform parallelized execution of these static methods
- *     - constructor sets fields containing general parameters of the calculation, a list of points at which to evaluate the fractal,
- *       a reference to an array in which to save the results, and the indices in which to save the result for each point
- *     - run() performs the calculation when the Runnable is executed
+ * - an instance applies these static methods to one calculation, and is shared by the tasks that perform it in parallel
+ *     - constructor sets fields containing the FractalView describing the calculation, and a reference to the flat array in which to
+ *       save the results
+ *     - calculateTile() and calculateRange() fill in part of the array, generating each point from its index without allocation
+ *         - they check between samples whether the calculation has been cancelled, so a cancelled tile stops without finishing
+ *         - setPass() restricts calculation to a grid of every passStride-th pixel, and to the first passSamples samples of each pixel,
+ *           so a calculation can be made in coarse-to-fine passes that reuse the samples of earlier passes
+ *         - a pass can also be restricted to a mask of pixels, e.g. to add antialiasing samples only where they're needed
+ *         - if the view is symmetric about the real axis (see FractalView.getMirrorPixel), pixels whose mirror pixel comes first are
+ *           skipped, and copyMirrored() copies their samples from the mirror pixel once the pass is done
+ *     - keeps the timing of the tiles of its last FractalScheduler.calculate (see getTileReport), apart from other calculations
+ *       sharing the scheduler
+ *     - getPixelValue() combines the calculated samples of a pixel into the value it's coloured by, without allocating if given scratch space
+ *     - calculateBorder(), getBorderFill(), and fillTile() support filling rectangles whose border is in the set (see FractalScheduler)
+ *     - the precision (float, double, double-double, BigDecimal, or perturbation) is chosen per view with selectPrecision()
+ *         - float is only chosen for views that ask for it: without a vector kernel it's no faster than double, and less accurate
+ *         - for double-double, BigDecimal, and perturbation, points are generated as offsets from the center (or reference point)
+ *     - periodicity checking ends the iteration early for points whose orbits become periodic, which are counted in counts
+ *     - with float, double, and perturbation, the last z_n of samples that reach maxIter can be kept (orbits), and samples can resume
+ *       from a kept z_n instead of z_0 (resume), so increasing maxIter only costs the extra iterations (see OrbitStore)
+ *         - each tile collects its entries for orbits in a store of its own and adds them once it's done, and resume is frozen before
+ *           the calculation starts, so neither is locked per sample
  */
 
 /* TODO:
- * - improve maximum resolution through arbitrary-precision BigDecimal and/or perturbation theory (see Wikipedia)
- * - try out periodicity-checking (see Wikipedia)
+ * - tune PERIODICITY_TOLERANCE; too large a tolerance would colour slowly-escaping points as in the set
+ * - try a SIMD kernel (jdk.incubator.vector) once the project targets Java 16+
+ *     - it would need masking of escaped lanes, per-lane smoothing, and per-lane periodicity snapshots to compete with the scalar kernel
+ *     - on JDK 17, prototypes (8-lane DoubleVector, masked and unmasked) and lane-interleaved scalar loops were all slower than MandelbrotPoint
  */
 
-public class FractalCalculator implements Runnable {
+public class FractalCalculator {
 	
 	// return values for special cases in fractal calculation
 	static double NOT_CALCULATED = -1;	// placeholder indicating the value of a pixel has not yet been calculated
 	static double REACHED_MAXITER = -2;	// special return value for points that did not escape before reaching the maximum iteration
 	static double IN_SET = -3;			// special return value for points analytically known to never escape
 	
-	// comparator to sort iteration numbers; ordinary number sorting, except REACHED_MAXITER and IN_SET (in that order) are higher than everything else
-	static Comparator<Double> ITERATION_COMPARATOR = new Comparator<Double>(){
-		public int compare(Double o1, Double o2) {
-			// TODO: what is good practice with return statements, if/if/if/.../return or if/else if/else if/.../else
-			if(o1.equals(o2)) {
-				return 0;
-			}
-			else if(o1 == IN_SET) {
-				return 1;
-			}
-			else if(o2 == IN_SET) {
-				return -1;
-			}
-			else if(o1 == REACHED_MAXITER) {
-				return 1;
-			}
-			else if(o2 == REACHED_MAXITER) {
-				return -1;
-			}
-			else {
-				return o1.compareTo(o2);
-			}
-		}		
-	};
+	// arithmetic used for calculation, from cheapest to most precise
+	static final int PRECISION_FLOAT = 0;			// single-precision floats
+	static final int PRECISION_DOUBLE = 1;			// double-precision floats
+	static final int PRECISION_PERTURBATION = 2;	// double-precision offsets from a high-precision ReferenceOrbit
+	static final int PRECISION_DOUBLEDOUBLE = 3;	// unevaluated sums of two doubles (~106-bit significand)
+	static final int PRECISION_BIGDECIMAL = 4;		// arbitrary-precision BigDecimal
+	static String[] PRECISION_NAMES = {"float", "double", "perturbation", "double-double", "BigDecimal"};
+	static int PRECISION_GUARD_BITS = 10;	// bits of precision to keep below the pixel spacing, to absorb rounding error amplified by iteration
+	
+	// indices in the array of counts that the calculation reports back
+	static final int COUNT_ITERATIONS = 0;	// iterations calculated
+	static final int COUNT_PERIODIC = 1;	// points found to be in the set by periodicity checking
+	static final int COUNT_SAVED = 2;		// iterations saved by periodicity checking
+	static final int COUNT_FILLED = 3;		// samples filled in from their surroundings instead of being calculated
+	static final int COUNT_FILL_ERRORS = 4;	// filled samples that escaped when calculated anyway (only counted when verifying fills)
+	static final int COUNT_RESUMED = 5;		// samples resumed from the last z_n of an earlier calculation with a lower maxIter
+	static final int COUNT_RESUMED_ITERATIONS = 6;	// iterations those samples had already been calculated for
+	static final int N_COUNTS = 7;
+	static double PERIODICITY_TOLERANCE = 1e-3;	// distance (relative to the pixel spacing) at which z_n counts as having returned to a snapshot
+	static boolean USE_MIRROR = true;	// copy pixels from their mirror pixels across the real axis instead of calculating them
 	
 	// constants
 	static double log2 = Math.log(2);		// constant used for smoothing
 	
-	// general calculation parameters
+	// calculation parameters
+	FractalView view;			// framing, sampling, and arithmetic of the calculation
 	int maxIter;				// maximum number of fractal iterations to calculate before giving up
 	double escapeRadiusSquared;	// square of radius at which a point is considered to have "escaped" from the set
+	double periodicityToleranceSquared;	// square of distance at which z_n counts as periodic (zero to disable periodicity checking)
+	
+	// solver (see FractalScheduler): Mariani-Silver is opt-in, since its fills can miss filaments thinner than the sample spacing
+	int solver = FractalScheduler.SOLVER_BRUTE_FORCE;
+	boolean verifyFills;		// calculate filled samples anyway, and count those that were filled incorrectly
+	
+	// center, split into high and low doubles once for double-double, and reference orbit for perturbation
+	double centerRHi, centerRLo;
+	double centerIHi, centerILo;
+	ReferenceOrbit reference;
 	
 	// calculation input/output
-	Point2D.Double[] points;	// a list of points at which to calculate the fractal
-	double[][] fractal;			// reference to an array in which to save the results of calculation
-	int[][] indices;			// indices in fractal at which to save the result for each point
-	int[] progressCounter;		// tracks calculation progress
+	double[] fractal;			// reference to the flat array (laid out as described by view) in which to save the results of calculation
+	LongAdder progress;			// number of samples calculated (or filled), for progress reporting
+	long[] counts;				// totals of the COUNT_ values over all calculations sharing this array
+	OrbitStore orbits;			// if not null (and the precision can resume), receives the last z_n of samples that reach maxIter
+	OrbitStore resume;			// if not null, frozen store of samples to continue from a z_n instead of from z_0
+	
+	// progressive pass
+	int passStride;				// only pixels whose coordinates are multiples of passStride are calculated
+	int passSamples;			// only the first passSamples samples of each pixel are calculated
+	boolean[] passPixels;		// if not null, only pixels (i, j) with passPixels[j*widthPixels + i] are calculated
+	boolean mirror;				// whether pixels are copied from their mirror pixels (see isCopied)
+	
+	// cancellation (set by FractalScheduler.calculate): calculation stops between samples once the scheduler's generation has changed
+	FractalScheduler scheduler;
+	int generation;
+	
+	// timing of the tiles of the last FractalScheduler.calculate of this calculation
+	int tileCount;				// number of tiles calculated
+	long tileNanosTotal;		// total time spent calculating tiles (ns)
+	long tileNanosMax;			// time of the slowest tile (ns)
+	int[] slowestTile;			// rectangle {x0, y0, x1, y1} of the slowest tile
 
-	// constructor: assign values to fields and check that points and indices match
-	FractalCalculator(double[][] fractalArray, Point2D.Double[] fractalPoints, int[][] arrayIndices, int maxIter, double escapeRadius, int[] progressCounter) {
-		// throw exception if the number of points doesn't match the number of indices
-		if(arrayIndices.length != fractalPoints.length) {
-			throw new IllegalArgumentException("Illegal arguments passed to FractalCalculator constructor: i.length != p.length");
+	// constructor: assign values to fields, check that the array matches the view, and prepare the center/reference for the precision
+	FractalCalculator(FractalView view, double[] fractalArray, LongAdder progress, long[] counts) {
+		// throw exception if the array doesn't match the view
+		if(fractalArray.length != view.getSampleCount()) {
+			throw new IllegalArgumentException("Illegal arguments passed to FractalCalculator constructor: fractal.length doesn't match view");
 		}
 		
-		// throw exception if the entries in indices aren't 2D
-		if(arrayIndices[0].length != 2) {
-			throw new IllegalArgumentException("Illegal arguments passed to FractalCalculator constructor: i[0].length != 2");
+		this.view = view;
+		fractal = fractalArray;
+		maxIter = view.maxIter;
+		escapeRadiusSquared = view.escapeRadius*view.escapeRadius;
+		periodicityToleranceSquared = view.periodicityTolerance*view.periodicityTolerance;
+		this.progress = progress;
+		this.counts = counts;
+		mirror = USE_MIRROR && view.hasMirror;
+		
+		centerRHi = view.centerX;
+		centerIHi = view.centerY;
+		if(view.precision == PRECISION_DOUBLEDOUBLE) {
+			centerRLo = view.centerXPrecise.subtract(new BigDecimal(centerRHi)).doubleValue();
+			centerILo = view.centerYPrecise.subtract(new BigDecimal(centerIHi)).doubleValue();
+		}
+		if(view.precision == PRECISION_PERTURBATION) {
+			reference = view.getReferenceOrbit();
 		}
 		
-		fractal = fractalArray;
-		indices = arrayIndices;
-		points = fractalPoints;
-		this.maxIter = maxIter;
-		escapeRadiusSquared = escapeRadius*escapeRadius;
-		this.progressCounter = progressCounter;
+		setPass(1, view.samplesPerPixel);
+	}
+	
+	// restrict the following calculations to every stride-th pixel, and to the first samples samples of each pixel
+	void setPass(int stride, int samples) {
+		setPass(stride, samples, null);
+	}
+	
+	// restrict the following calculations to every stride-th pixel that's in a mask (null for all pixels), and to the first samples
+	// samples of each pixel
+	void setPass(int stride, int samples, boolean[] pixels) {
+		if(stride < 1 || samples < 1 || samples > view.samplesPerPixel) {
+			throw new IllegalArgumentException("Illegal arguments passed to FractalCalculator.setPass: stride < 1 or samples out of range");
+		}
+		if(pixels != null && pixels.length != view.widthPixels*view.heightPixels) {
+			throw new IllegalArgumentException("Illegal arguments passed to FractalCalculator.setPass: pixels.length doesn't match view");
+		}
+		passStride = stride;
+		passSamples = samples;
+		passPixels = pixels;
+	}
+	
+	// whether the calculation has been cancelled since the scheduler started it
+	boolean isCancelled() {
+		return scheduler != null && scheduler.generation != generation;
 	}
 	
-	// for each point, evaluate the fractal and save the result
-	public void run() {
-		for(int i=0; i<points.length; i++) {
-			fractal[indices[i][0]][indices[i][1]] = MandelbrotPoint(points[i], maxIter, escapeRadiusSquared);
+	// first coordinate at or after x that's on the grid of the current pass
+	int getFirstOnGrid(int x) {
+		return (x + passStride - 1)/passStride*passStride;
+	}
+	
+	// whether pixel (i, j) of the current pass is copied from its mirror pixel rather than calculated: its mirror pixel comes before it,
+	// and is in the pass too
+	boolean isCopied(int i, int j) {
+		if(!mirror) {
+			return false;
+		}
+		int m = view.getMirrorPixel(i, j);
+		if(m < 0 || m >= j*view.widthPixels + i) {
+			return false;
 		}
-		progressCounter[0] += points.length;
+		int mi = m%view.widthPixels;
+		int mj = m/view.widthPixels;
+		return mi%passStride == 0 && mj%passStride == 0 && (passPixels == null || passPixels[m]);
 	}
 
-	// evaluate the Mandelbrot fractal at a point
-	static double MandelbrotPoint(Point2D.Double z0, int maxIter, double escapeRadiusSquared) {
-		double r0 = z0.getX();
-		double i0 = z0.getY();
+	// whether every pixel of the current pass in the rectangle [x0, x1) x [y0, y1) is copied from its mirror pixel
+	boolean isCopiedTile(int x0, int y0, int x1, int y1) {
+		if(!mirror) {
+			return false;
+		}
+		for(int j = getFirstOnGrid(y0); j < y1; j += passStride) {
+			for(int i = getFirstOnGrid(x0); i < x1; i += passStride) {
+				if(!isCopied(i, j) && (passPixels == null || passPixels[j*view.widthPixels + i])) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// copy the samples of the current pass in row j from the mirror pixels of the pixels that are copied (see isCopied), where the
+	// mirror pixel's sample was calculated and the pixel's wasn't, counting them as calculated
+	// a mirror pixel's sample k is at the reflection of the pixel's sample k, which is the pixel's own sample k if view.mirrorExact
+	void copyMirrored(int j) {
+		if(!mirror || j%passStride != 0) {
+			return;
+		}
+		int copied = 0;
+		for(int i = 0; i < view.widthPixels; i += passStride) {
+			if(isCopied(i, j) && (passPixels == null || passPixels[j*view.widthPixels + i])) {
+				int from = view.getMirrorPixel(i, j)*view.samplesPerPixel;
+				int to = view.getSampleIndex(i, j, 0);
+				for(int k = 0; k < passSamples; k++) {
+					if(fractal[to + k] == NOT_CALCULATED && fractal[from + k] != NOT_CALCULATED) {
+						fractal[to + k] = fractal[from + k];
+						copied++;
+					}
+				}
+			}
+		}
+		addCounts(copied, new long[N_COUNTS], null);
+	}
+
+	// calculate every sample of the current pass in the rectangle [x0, x1) x [y0, y1) that hasn't been calculated yet
+	void calculateTile(int x0, int y0, int x1, int y1) {
+		long[] localCounts = new long[N_COUNTS];	// counts for this tile, added to the shared counts at the end
+		double[] lastZ = new double[2];				// last z_n of a sample, for orbits
+		OrbitStore tileOrbits = createTileOrbits();	// entries for orbits from this tile, added to it at the end
+		int calculated = 0;
+		for(int j = getFirstOnGrid(y0); j < y1; j += passStride) {
+			calculated += calculatePixels(x0, x1, j, localCounts, lastZ, tileOrbits);
+		}
+		addCounts(calculated, localCounts, tileOrbits);
+	}
+	
+	// calculate every sample of the current pass on the border of the rectangle [x0, x1) x [y0, y1) that hasn't been calculated yet
+	// (only meaningful when passStride is 1)
+	void calculateBorder(int x0, int y0, int x1, int y1) {
+		long[] localCounts = new long[N_COUNTS];
+		double[] lastZ = new double[2];
+		OrbitStore tileOrbits = createTileOrbits();
+		int calculated = calculatePixels(x0, x1, y0, localCounts, lastZ, tileOrbits);				// top row
+		calculated += calculatePixels(x0, x1, y1 - 1, localCounts, lastZ, tileOrbits);				// bottom row
+		for(int j = y0 + 1; j < y1 - 1; j++) {
+			calculated += calculatePixels(x0, x0 + 1, j, localCounts, lastZ, tileOrbits);			// left column
+			calculated += calculatePixels(x1 - 1, x1, j, localCounts, lastZ, tileOrbits);			// right column
+		}
+		addCounts(calculated, localCounts, tileOrbits);
+	}
+	
+	// calculate every sample of the current pass of the pixels [x0, x1) in row j that hasn't been calculated yet, and return how many
+	// were calculated (see calculateRange for lastZ and tileOrbits)
+	int calculatePixels(int x0, int x1, int j, long[] localCounts, double[] lastZ, OrbitStore tileOrbits) {
+		if(passStride == 1 && passSamples == view.samplesPerPixel && passPixels == null && !mirror) {
+			// a row of a tile is contiguous
+			return calculateRange(view.getSampleIndex(x0, j, 0), view.getSampleIndex(x1, j, 0), localCounts, lastZ, tileOrbits);
+		}
+		int calculated = 0;
+		for(int i = getFirstOnGrid(x0); i < x1; i += passStride) {
+			if((passPixels != null && !passPixels[j*view.widthPixels + i]) || isCopied(i, j)) {
+				continue;
+			}
+			calculated += calculateRange(view.getSampleIndex(i, j, 0), view.getSampleIndex(i, j, passSamples), localCounts, lastZ, tileOrbits);
+		}
+		return calculated;
+	}
+	
+	// if no sample on the border of the rectangle escaped, return the value to fill its interior with (IN_SET if the whole border is
+	// IN_SET, REACHED_MAXITER otherwise); if any sample escaped, return NOT_CALCULATED
+	// by the maximum modulus principle, |z_n| (a polynomial in z0) can't reach the escape radius inside a curve where it doesn't on the
+	// curve, so the interior can only escape where the border samples miss a filament passing between them
+	double getBorderFill(int x0, int y0, int x1, int y1) {
+		boolean allInSet = true;
+		for(int j = y0; j < y1; j++) {
+			// whole top and bottom rows, only the ends of the other rows
+			int step = (j == y0 || j == y1 - 1) ? 1 : Math.max(1, x1 - 1 - x0);
+			for(int i = x0; i < x1; i += step) {
+				for(int k = 0; k < passSamples; k++) {
+					double value = fractal[view.getSampleIndex(i, j, k)];
+					if(value != IN_SET && value != REACHED_MAXITER) {
+						return NOT_CALCULATED;
+					}
+					allInSet &= value == IN_SET;
+				}
+			}
+		}
+		return allInSet ? IN_SET : REACHED_MAXITER;
+	}
+	
+	// fill every uncalculated sample of the current pass in the rectangle [x0, x1) x [y0, y1) with a value, counting the filled samples
+	// as calculated (only meaningful when passStride is 1)
+	// if verifying, calculate the samples anyway and keep the calculated values, counting those that escaped as fill errors
+	void fillTile(int x0, int y0, int x1, int y1, double value, boolean verify) {
+		long[] localCounts = new long[N_COUNTS];
+		double[] lastZ = new double[2];
+		OrbitStore tileOrbits = createTileOrbits();
+		int filled = 0;
+		for(int j = y0; j < y1; j++) {
+			for(int i = x0; i < x1; i++) {
+				for(int index = view.getSampleIndex(i, j, 0); index < view.getSampleIndex(i, j, passSamples); index++) {
+					if(fractal[index] == NOT_CALCULATED) {
+						if(verify) {
+							fractal[index] = calculateSample(index, localCounts, lastZ, tileOrbits);
+							if(fractal[index] >= 0) {
+								localCounts[COUNT_FILL_ERRORS]++;
+							}
+						}
+						else {
+							fractal[index] = value;
+						}
+						filled++;
+					}
+				}
+			}
+		}
+		localCounts[COUNT_FILLED] += filled;
+		addCounts(filled, localCounts, tileOrbits);
+	}
+	
+	// value of a pixel: the median of its calculated samples (NOT_CALCULATED if none have been calculated)
+	static double getPixelValue(FractalView view, double[] fractal, int i, int j) {
+		return getPixelValue(view, fractal, i, j, new double[view.samplesPerPixel]);
+	}
+	
+	// value of a pixel as above, using scratch (at least view.samplesPerPixel long) instead of allocating
+	// samples are ordered as numbers, except REACHED_MAXITER and IN_SET (in that order) are higher than everything else
+	static double getPixelValue(FractalView view, double[] fractal, int i, int j, double[] scratch) {
+		int n = 0;
+		int start = view.getSampleIndex(i, j, 0);
+		for(int index = start; index < start + view.samplesPerPixel; index++) {
+			double value = fractal[index];
+			if(value != NOT_CALCULATED) {
+				scratch[n++] = value == IN_SET ? Double.POSITIVE_INFINITY : value == REACHED_MAXITER ? Double.MAX_VALUE : value;
+			}
+		}
+		if(n == 0) {
+			return NOT_CALCULATED;
+		}
+		double median = select(scratch, n, n/2); // median-ish
+		return median == Double.POSITIVE_INFINITY ? IN_SET : median == Double.MAX_VALUE ? REACHED_MAXITER : median;
+	}
+	
+	// k-th smallest of the first n values of an array (quickselect), reordering them
+	static double select(double[] values, int n, int k) {
+		int left = 0;
+		int right = n - 1;
+		while(left < right) {
+			// partition [left, right] around the middle value
+			double pivot = values[(left + right) >>> 1];
+			int a = left;
+			int b = right;
+			while(a <= b) {
+				while(values[a] < pivot) {
+					a++;
+				}
+				while(values[b] > pivot) {
+					b--;
+				}
+				if(a <= b) {
+					double t = values[a];
+					values[a++] = values[b];
+					values[b--] = t;
+				}
+			}
+			// continue in the part that contains index k
+			if(k <= b) {
+				right = b;
+			}
+			else if(k >= a) {
+				left = a;
+			}
+			else {
+				break;
+			}
+		}
+		return values[k];
+	}
+	
+	// calculate every sample in the index range [start, end) that hasn't been calculated yet, and return how many were calculated
+	// (lastZ is scratch space for calculateSample, and tileOrbits receives the entries for orbits, both allocated once per tile)
+	int calculateRange(int start, int end, long[] localCounts, double[] lastZ, OrbitStore tileOrbits) {
+		int calculated = 0;
+		for(int index = start; index < end; index++) {
+			if(fractal[index] == NOT_CALCULATED) {
+				if(isCancelled()) {
+					break;
+				}
+				fractal[index] = calculateSample(index, localCounts, lastZ, tileOrbits);
+				calculated++;
+			}
+		}
+		return calculated;
+	}
+	
+	// generate the point of the sample at an index of the fractal array, and evaluate the fractal there (continuing from the sample's
+	// entry in resume, if it has one); if the sample reaches maxIter, its last z_n is left in lastZ and added to tileOrbits (the tile's
+	// entries for orbits, or null if they aren't kept)
+	double calculateSample(int index, long[] localCounts, double[] lastZ, OrbitStore tileOrbits) {
+		// generate the sample's offset from the center
+		int samplesWidth = view.getSamplesWidth();
+		int column = index%samplesWidth;
+		int row = index/samplesWidth;
+		double x = view.getSampleImageX(column);
+		double y = view.getSampleImageY(column, row);
+		double dr = view.getOffsetR(x, y);
+		double di = view.getOffsetI(x, y);
+		
+		// find where to start iterating
+		int n0 = 0;
+		double r0 = 0;
+		double i0 = 0;
+		if(resume != null) {
+			int entry = resume.find(index);
+			if(entry >= 0) {
+				n0 = resume.iterations[entry];
+				r0 = resume.re[entry];
+				i0 = resume.im[entry];
+				localCounts[COUNT_RESUMED]++;
+				localCounts[COUNT_RESUMED_ITERATIONS] += n0;
+			}
+		}
 		
+		double value;
+		switch (view.precision) {
+			case PRECISION_FLOAT:
+				value = MandelbrotPointFloat((float)(centerRHi + dr), (float)(centerIHi + di), n0, (float)r0, (float)i0, maxIter,
+						(float)escapeRadiusSquared, (float)periodicityToleranceSquared, localCounts, lastZ);
+				break;
+			case PRECISION_DOUBLE:
+				value = MandelbrotPoint(centerRHi + dr, centerIHi + di, n0, r0, i0, maxIter, escapeRadiusSquared, periodicityToleranceSquared,
+						localCounts, lastZ);
+				break;
+			case PRECISION_PERTURBATION:
+				value = MandelbrotPointPerturbed(view.getReferenceOffsetR(column, row), view.getReferenceOffsetI(column, row), reference, n0, r0, i0, maxIter,
+						escapeRadiusSquared, periodicityToleranceSquared, localCounts, lastZ);
+				break;
+			case PRECISION_DOUBLEDOUBLE:
+				// add the offset to the center exactly, then renormalize
+				double rHi = centerRHi + dr;
+				double rLo = twoSumError(centerRHi, dr, rHi) + centerRLo;
+				double iHi = centerIHi + di;
+				double iLo = twoSumError(centerIHi, di, iHi) + centerILo;
+				return MandelbrotPointDoubleDouble(rHi + rLo, rLo - ((rHi + rLo) - rHi), iHi + iLo, iLo - ((iHi + iLo) - iHi),
+						maxIter, escapeRadiusSquared, periodicityToleranceSquared, localCounts);
+			case PRECISION_BIGDECIMAL:
+				BigDecimal r0Precise = view.centerXPrecise.add(new BigDecimal(dr), view.mathContext);
+				BigDecimal i0Precise = view.centerYPrecise.add(new BigDecimal(di), view.mathContext);
+				return MandelbrotPointBigDecimal(r0Precise, i0Precise, maxIter, escapeRadiusSquared, view.mathContext, periodicityToleranceSquared,
+						localCounts);
+			default:
+				throw new IllegalStateException("Unknown precision in FractalCalculator.calculateSample: " + view.precision);
+		}
+		if(value == REACHED_MAXITER && tileOrbits != null) {
+			tileOrbits.add(index, lastZ[0], lastZ[1], maxIter);
+
+			// the sample the value will be copied to (see copyMirrored) has the conjugate z_n
+			int m = mirror ? view.getMirrorPixel(column/view.samplesPerPixel, row) : -1;
+			if(m > row*view.widthPixels + column/view.samplesPerPixel && isCopied(m%view.widthPixels, m/view.widthPixels)) {
+				int mirrorIndex = m*view.samplesPerPixel + column%view.samplesPerPixel;
+				if(fractal[mirrorIndex] == NOT_CALCULATED) {
+					tileOrbits.add(mirrorIndex, lastZ[0], -lastZ[1], maxIter);
+				}
+			}
+		}
+		return value;
+	}
+	
+	// whether samples calculated with a precision can be resumed from their last z_n (which is kept only in double precision)
+	static boolean canResume(int precision) {
+		return precision == PRECISION_FLOAT || precision == PRECISION_DOUBLE || precision == PRECISION_PERTURBATION;
+	}
+	
+	// forget the tile timing of the last calculate (see FractalScheduler.calculate)
+	synchronized void resetTileTimes() {
+		tileCount = 0;
+		tileNanosTotal = 0;
+		tileNanosMax = 0;
+		slowestTile = null;
+	}
+	
+	// record the time taken by a tile
+	synchronized void recordTile(int x0, int y0, int x1, int y1, long nanos) {
+		tileCount++;
+		tileNanosTotal += nanos;
+		if(nanos > tileNanosMax) {
+			tileNanosMax = nanos;
+			slowestTile = new int[] {x0, y0, x1, y1};
+		}
+	}
+	
+	// describe the tile timing of the last calculate
+	synchronized String getTileReport() {
+		if(tileCount == 0) {
+			return "no tiles";
+		}
+		return String.format("%s tiles, mean %.2f ms, max %.2f ms at [%s, %s) x [%s, %s)", tileCount, 1e-6*tileNanosTotal/tileCount, 1e-6*tileNanosMax,
+				slowestTile[0], slowestTile[2], slowestTile[1], slowestTile[3]);
+	}
+	
+	// store for the entries a tile adds to orbits (null if orbits aren't kept), merged into orbits once the tile is done (see addCounts)
+	OrbitStore createTileOrbits() {
+		return orbits == null ? null : new OrbitStore(0);
+	}
+	
+	// add progress, counts, and entries for orbits (if not null) of a finished piece of calculation to the shared totals, and progress
+	// and counts to the scheduler's metrics
+	void addCounts(int calculated, long[] localCounts, OrbitStore tileOrbits) {
+		if(tileOrbits != null && tileOrbits.size > 0) {
+			orbits.addAll(tileOrbits);
+		}
+		progress.add(calculated);
+		if(scheduler != null) {
+			scheduler.metrics.addWork(calculated, localCounts);
+		}
+		synchronized(counts) {
+			for(int c = 0; c < N_COUNTS; c++) {
+				counts[c] += localCounts[c];
+			}
+		}
+	}
+	
+	// choose the cheapest precision that can resolve points spaced pixelSize apart, with coordinates up to magnitude (float only if
+	// useFloat is set)
+	static int selectPrecision(double pixelSize, double magnitude, boolean usePerturbation, boolean useFloat) {
+		double resolution = pixelSize/(Math.max(magnitude, 2)*Math.pow(2, PRECISION_GUARD_BITS));	// relative spacing that must be resolved
+		if(useFloat && resolution > Math.ulp(1f)) {
+			return PRECISION_FLOAT;
+		}
+		if(resolution > Math.ulp(1.0)) {
+			return PRECISION_DOUBLE;
+		}
+		if(usePerturbation) {
+			return PRECISION_PERTURBATION;	// as cheap as double, at any depth that double offsets can represent
+		}
+		if(resolution > Math.ulp(1.0)*Math.ulp(1.0)) {
+			return PRECISION_DOUBLEDOUBLE;
+		}
+		return PRECISION_BIGDECIMAL;
+	}
+
+	// evaluate the Mandelbrot fractal at a point
+	static double MandelbrotPoint(double r0, double i0, int maxIter, double escapeRadiusSquared, double periodicityToleranceSquared, long[] counts) {
+		return MandelbrotPoint(r0, i0, 0, 0, 0, maxIter, escapeRadiusSquared, periodicityToleranceSquared, counts, null);
+	}
+	
+	// evaluate the Mandelbrot fractal at a point, starting from z_n0 = zr0 + zi0*i
+	// if the point reaches maxIter and lastZ isn't null, its last z_n is left in lastZ
+	static double MandelbrotPoint(double r0, double i0, int n0, double zr0, double zi0, int maxIter, double escapeRadiusSquared,
+			double periodicityToleranceSquared, long[] counts, double[] lastZ) {
 		// return special value if z0 is known to be in the set
 		if(mandelTest(r0, i0)) {
 			return IN_SET;
 		}
 		
-		int n = 0;
-		double r = 0;
-		double i = 0;
+		int n = n0;
+		double r = zr0;
+		double i = zi0;
+		int snapshotN = Math.max(1, 2*n0);	// iteration at which to next take a snapshot of z_n for periodicity checking
+		double snapshotR = zr0;
+		double snapshotI = zi0;
 		
 		while(true){
 			// iterate z_{n+1} = z_n^2 + z0 until z_n escapes or n reaches maxIter
@@ -112,16 +564,303 @@ public class FractalCalculator implements Runnable {
 			// if z_n has escaped, return number of iterations
 			if(r*r + i*i >= escapeRadiusSquared) {
 				// to interpolate between integer iteration numbers, consider how far z escaped
+				counts[COUNT_ITERATIONS] += n - n0;
+				return n + 1 - Math.log(0.5*Math.log(r*r + i*i))/log2;
+			}
+			
+			// return special value if n reached maxIter without escaping
+			if(n >= maxIter) {
+				counts[COUNT_ITERATIONS] += n - n0;
+				if(lastZ != null) {
+					lastZ[0] = r;
+					lastZ[1] = i;
+				}
+				return REACHED_MAXITER;
+			}
+			
+			// periodicity checking (Brent's method): if z_n returns to within the tolerance of a snapshot of an earlier z,
+			// the orbit has (numerically) become periodic and will never escape; retaking the snapshot at n = 1, 2, 4, 8, ...
+			// ensures that a cycle of any period is eventually caught
+			double pr = r - snapshotR;
+			double pi = i - snapshotI;
+			if(pr*pr + pi*pi < periodicityToleranceSquared) {
+				return periodic(n0, n, maxIter, counts);
+			}
+			if(n == snapshotN) {
+				snapshotR = r;
+				snapshotI = i;
+				snapshotN *= 2;
+			}
+		}
+	}
+	
+	// evaluate the Mandelbrot fractal at a point in single precision
+	static double MandelbrotPointFloat(float r0, float i0, int maxIter, float escapeRadiusSquared, float periodicityToleranceSquared, long[] counts) {
+		return MandelbrotPointFloat(r0, i0, 0, 0, 0, maxIter, escapeRadiusSquared, periodicityToleranceSquared, counts, null);
+	}
+	
+	// evaluate the Mandelbrot fractal at a point in single precision, starting from z_n0 = zr0 + zi0*i (see MandelbrotPoint)
+	static double MandelbrotPointFloat(float r0, float i0, int n0, float zr0, float zi0, int maxIter, float escapeRadiusSquared,
+			float periodicityToleranceSquared, long[] counts, double[] lastZ) {
+		// return special value if z0 is known to be in the set
+		if(mandelTest(r0, i0)) {
+			return IN_SET;
+		}
+		
+		int n = n0;
+		float r = zr0;
+		float i = zi0;
+		int snapshotN = Math.max(1, 2*n0);
+		float snapshotR = zr0;
+		float snapshotI = zi0;
+		
+		while(true){
+			// iterate z_{n+1} = z_n^2 + z0 until z_n escapes or n reaches maxIter
+			float rt = r;
+			r = rt*rt - i*i + r0;
+			i = 2*rt*i + i0;
+			n++;
+			
+			// if z_n has escaped, return number of iterations
+			if(r*r + i*i >= escapeRadiusSquared) {
+				counts[COUNT_ITERATIONS] += n - n0;
 				return n + 1 - Math.log(0.5*Math.log(r*r + i*i))/log2;
 			}
 			
 			// return special value if n reached maxIter without escaping
 			if(n >= maxIter) {
+				counts[COUNT_ITERATIONS] += n - n0;
+				if(lastZ != null) {
+					lastZ[0] = r;
+					lastZ[1] = i;
+				}
 				return REACHED_MAXITER;
 			}
+			
+			// periodicity checking
+			float pr = r - snapshotR;
+			float pi = i - snapshotI;
+			if(pr*pr + pi*pi < periodicityToleranceSquared) {
+				return periodic(n0, n, maxIter, counts);
+			}
+			if(n == snapshotN) {
+				snapshotR = r;
+				snapshotI = i;
+				snapshotN *= 2;
+			}
 		}
 	}
 	
+	// evaluate the Mandelbrot fractal at a point given as double-doubles (r0 = r0Hi + r0Lo, i0 = i0Hi + i0Lo)
+	static double MandelbrotPointDoubleDouble(double r0Hi, double r0Lo, double i0Hi, double i0Lo, int maxIter, double escapeRadiusSquared,
+			double periodicityToleranceSquared, long[] counts) {
+		// return special value if z0 is known to be in the set
+		if(mandelTest(r0Hi, i0Hi)) {
+			return IN_SET;
+		}
+		
+		int n = 0;
+		double rHi = 0, rLo = 0;
+		double iHi = 0, iLo = 0;
+		int snapshotN = 1;
+		double snapshotR = 0;
+		double snapshotI = 0;
+		
+		while(true){
+			// square terms, as exact products of the high parts plus first-order corrections from the low parts
+			double rrHi = rHi*rHi;
+			double rrLo = Math.fma(rHi, rHi, -rrHi) + 2*rHi*rLo;
+			double iiHi = iHi*iHi;
+			double iiLo = Math.fma(iHi, iHi, -iiHi) + 2*iHi*iLo;
+			double riHi = rHi*iHi;
+			double riLo = Math.fma(rHi, iHi, -riHi) + rHi*iLo + rLo*iHi;
+			
+			// r_{n+1} = r_n^2 - i_n^2 + r0
+			double sHi = rrHi - iiHi;
+			double sLo = twoSumError(rrHi, -iiHi, sHi) + rrLo - iiLo;
+			double tHi = sHi + r0Hi;
+			double tLo = twoSumError(sHi, r0Hi, tHi) + sLo + r0Lo;
+			rHi = tHi + tLo;
+			rLo = tLo - (rHi - tHi);
+			
+			// i_{n+1} = 2*r_n*i_n + i0
+			tHi = 2*riHi + i0Hi;
+			tLo = twoSumError(2*riHi, i0Hi, tHi) + 2*riLo + i0Lo;
+			iHi = tHi + tLo;
+			iLo = tLo - (iHi - tHi);
+			n++;
+			
+			// if z_n has escaped, return number of iterations (the low parts don't matter here)
+			if(rHi*rHi + iHi*iHi >= escapeRadiusSquared) {
+				counts[COUNT_ITERATIONS] += n;
+				return n + 1 - Math.log(0.5*Math.log(rHi*rHi + iHi*iHi))/log2;
+			}
+			
+			// return special value if n reached maxIter without escaping
+			if(n >= maxIter) {
+				counts[COUNT_ITERATIONS] += n;
+				return REACHED_MAXITER;
+			}
+			
+			// periodicity checking (the high parts are plenty to compare against the tolerance)
+			double pr = rHi - snapshotR;
+			double pi = iHi - snapshotI;
+			if(pr*pr + pi*pi < periodicityToleranceSquared) {
+				return periodic(0, n, maxIter, counts);
+			}
+			if(n == snapshotN) {
+				snapshotR = rHi;
+				snapshotI = iHi;
+				snapshotN *= 2;
+			}
+		}
+	}
+	
+	// evaluate the Mandelbrot fractal at a point in arbitrary precision
+	static double MandelbrotPointBigDecimal(BigDecimal r0, BigDecimal i0, int maxIter, double escapeRadiusSquared, MathContext mc, double periodicityToleranceSquared, long[] counts) {
+		// return special value if z0 is known to be in the set
+		if(mandelTest(r0.doubleValue(), i0.doubleValue())) {
+			return IN_SET;
+		}
+		
+		int n = 0;
+		BigDecimal r = BigDecimal.ZERO;
+		BigDecimal i = BigDecimal.ZERO;
+		BigDecimal two = BigDecimal.valueOf(2);
+		int snapshotN = 1;
+		double snapshotR = 0;
+		double snapshotI = 0;
+		
+		while(true){
+			// iterate z_{n+1} = z_n^2 + z0 until z_n escapes or n reaches maxIter
+			BigDecimal rt = r;
+			r = rt.multiply(rt, mc).subtract(i.multiply(i, mc), mc).add(r0, mc);
+			i = rt.multiply(i, mc).multiply(two, mc).add(i0, mc);
+			n++;
+			
+			// if z_n has escaped, return number of iterations
+			double rd = r.doubleValue();
+			double id = i.doubleValue();
+			if(rd*rd + id*id >= escapeRadiusSquared) {
+				counts[COUNT_ITERATIONS] += n;
+				return n + 1 - Math.log(0.5*Math.log(rd*rd + id*id))/log2;
+			}
+			
+			// return special value if n reached maxIter without escaping
+			if(n >= maxIter) {
+				counts[COUNT_ITERATIONS] += n;
+				return REACHED_MAXITER;
+			}
+			
+			// periodicity checking
+			double pr = rd - snapshotR;
+			double pi = id - snapshotI;
+			if(pr*pr + pi*pi < periodicityToleranceSquared) {
+				return periodic(0, n, maxIter, counts);
+			}
+			if(n == snapshotN) {
+				snapshotR = rd;
+				snapshotI = id;
+				snapshotN *= 2;
+			}
+		}
+	}
+	
+	// evaluate the Mandelbrot fractal at an offset dc from the reference point, iterating only the offset from the reference orbit
+	static double MandelbrotPointPerturbed(double dcr, double dci, ReferenceOrbit reference, int maxIter, double escapeRadiusSquared,
+			double periodicityToleranceSquared, long[] counts) {
+		return MandelbrotPointPerturbed(dcr, dci, reference, 0, 0, 0, maxIter, escapeRadiusSquared, periodicityToleranceSquared, counts, null);
+	}
+	
+	// evaluate the Mandelbrot fractal at an offset dc from the reference point, starting from the full value z_n0 = zr0 + zi0*i
+	// (which is rebased onto the start of the reference orbit); if the point reaches maxIter and lastZ isn't null, its last full z_n
+	// is left in lastZ
+	static double MandelbrotPointPerturbed(double dcr, double dci, ReferenceOrbit reference, int n0, double zr0, double zi0, int maxIter,
+			double escapeRadiusSquared, double periodicityToleranceSquared, long[] counts, double[] lastZ) {
+		// return special value if z0 is known to be in the set (double precision is plenty for this test)
+		if(mandelTest(reference.centerRe.doubleValue() + dcr, reference.centerIm.doubleValue() + dci)) {
+			return IN_SET;
+		}
+		
+		double[] refR = reference.re;
+		double[] refI = reference.im;
+		int refEnd = reference.length - 1;	// last usable index of the reference orbit
+		
+		int n = n0;		// iteration number of the point
+		int m = 0;		// index in the reference orbit; differs from n after rebasing
+		double dr = zr0;	// offset of z_n from the reference orbit value z_m (z_0 = 0, so a resumed z_n is its own offset)
+		double di = zi0;
+		int snapshotN = Math.max(1, 2*n0);
+		double snapshotR = zr0;
+		double snapshotI = zi0;
+		
+		while(true) {
+			// iterate d_{n+1} = (2*Z_m + d_n)*d_n + dc, which is z_{n+1} = z_n^2 + z0 with the reference orbit subtracted
+			double ar = 2*refR[m] + dr;
+			double ai = 2*refI[m] + di;
+			double drt = dr;
+			dr = ar*drt - ai*di + dcr;
+			di = ar*di + ai*drt + dci;
+			m++;
+			n++;
+			
+			// reconstruct the full value z_n = Z_m + d_n
+			double r = refR[m] + dr;
+			double i = refI[m] + di;
+			double zSquared = r*r + i*i;
+			
+			// if z_n has escaped, return number of iterations
+			if(zSquared >= escapeRadiusSquared) {
+				counts[COUNT_ITERATIONS] += n - n0;
+				return n + 1 - Math.log(0.5*Math.log(zSquared))/log2;
+			}
+			
+			// return special value if n reached maxIter without escaping
+			if(n >= maxIter) {
+				counts[COUNT_ITERATIONS] += n - n0;
+				if(lastZ != null) {
+					lastZ[0] = r;
+					lastZ[1] = i;
+				}
+				return REACHED_MAXITER;
+			}
+			
+			// periodicity checking, on the full value of z_n
+			double pr = r - snapshotR;
+			double pi = i - snapshotI;
+			if(pr*pr + pi*pi < periodicityToleranceSquared) {
+				return periodic(n0, n, maxIter, counts);
+			}
+			if(n == snapshotN) {
+				snapshotR = r;
+				snapshotI = i;
+				snapshotN *= 2;
+			}
+			
+			// glitch detection: once z_n is smaller than the offset (or the reference orbit has run out), the offset no longer
+			// resolves z_n relative to the reference; rebase onto the start of the reference orbit, using z_n itself as the offset
+			if(zSquared < dr*dr + di*di || m >= refEnd) {
+				dr = r;
+				di = i;
+				m = 0;
+			}
+		}
+	}
+	
+	// count the iterations of a point found to be periodic (from n0 to n), and the iterations saved by not continuing to maxIter
+	static double periodic(int n0, int n, int maxIter, long[] counts) {
+		counts[COUNT_ITERATIONS] += n - n0;
+		counts[COUNT_PERIODIC] += 1;
+		counts[COUNT_SAVED] += maxIter - n;
+		return IN_SET;
+	}
+	
+	// rounding error of the floating-point sum s = a + b, so that a + b = s + error exactly
+	static double twoSumError(double a, double b, double s) {
+		double bVirtual = s - a;
+		return (a - (s - bVirtual)) + (b - bVirtual);
+	}
+	
 	// check if a point is in the simple period-1 or 2 regions of the Mandelbrot set
 	static boolean mandelTest(double r, double i){
 		double rPlus = r + 1;
@@ -1,5 +1,7 @@
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
@@ -8,10 +10,13 @@ import java.io.IOException;
 import javax.imageio.ImageIO;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.event.ChangeEvent;
@@ -22,6 +27,7 @@ import javax.swing.event.ChangeListener;
  *     - creates and adds sub-Components
  *         - contains a JLabel to handle image, calculation, and mouse events
  *         - contains a panel with control Components and a progress bar
+ *             - colouring controls only recolour the image, without recalculating it
  * - contains main() for launching the GUI
  */
 
@@ -32,7 +38,7 @@ import javax.swing.event.ChangeListener;
  * - add a menu bar
  * - add options to hide menu bar and control panel and/or go full-screen
  * - add keyboard control (requires learning the focus subsystem)
- * - add image saving
+ * - add image saving (FractalRenderer already renders and saves images from the command line)
  *     - try to add fractal information in image metadata (use ImageReader/ImageWriter)
  * - add precise framing (place a frame in view, then use it to set view params)
  */
@@ -66,7 +72,12 @@ public class FractalGUI extends JFrame {
 	
 	JPanel controlPanel;		// controlPanel should contain a progress bar and Components for modifying the view parameters (note: hide with setVisible())
 	JSpinner iterationSpinner;	// increase/decrease max iterations
+	JCheckBox autoIterationBox;	// choose max iterations for each view automatically
 	JSpinner rotationSpinner;	// rotate view
+	JSpinner threadSpinner;		// number of threads to calculate with
+	JSpinner cycleSpinner;		// shift colours along the gradient
+	JComboBox<String> colouringBox;	// choose log-scaled or histogram-equalised colouring
+	JComboBox<String> modeBox;	// choose escape-time or Buddhabrot rendering
 	JProgressBar progressBar;	// to track calculation progress
 
 	// constructor: initialize the JFrame and its Components
@@ -87,6 +98,7 @@ public class FractalGUI extends JFrame {
 		setLayout(new BorderLayout());
 		
 		label = new FractalLabel(this);
+		label.scheduler.metrics.register("gui");	// (readable with JConsole or VisualVM while the program runs)
 		add(label, BorderLayout.CENTER);
 		
 		controlPanel = new JPanel();
@@ -97,16 +109,31 @@ public class FractalGUI extends JFrame {
 		iterationSpinner.setPreferredSize(new Dimension(80, 20));
 		iterationSpinner.setMaximumSize(new Dimension(80, 20));
 		iterationSpinner.addChangeListener(new ChangeListener(){
-			// update the fractal when the spinner is changed
+			// update the fractal when the spinner is changed (turning off automatic max iterations, since the user chose a value)
 			public void stateChanged(ChangeEvent arg0){
 				int newValue = (int)iterationSpinner.getValue();
 				if(label.maxIter != newValue) {
 					label.maxIter = newValue;
+					label.autoMaxIter = false;
+					autoIterationBox.setSelected(false);
 					label.updateTimer.restart();
 				}
 			}
 		});
 		controlPanel.add(iterationSpinner);
+		
+		autoIterationBox = new JCheckBox("auto", label.autoMaxIter);
+		autoIterationBox.addActionListener(new ActionListener(){
+			// update the fractal when automatic max iterations are turned on or off (see MaxIterEstimator)
+			public void actionPerformed(ActionEvent arg0){
+				boolean newValue = autoIterationBox.isSelected();
+				if(label.autoMaxIter != newValue) {
+					label.autoMaxIter = newValue;
+					label.updateTimer.restart();
+				}
+			}
+		});
+		controlPanel.add(autoIterationBox);
 
 		rotationSpinner = new JSpinner(new SpinnerCyclicNumberModel(Math.toDegrees(label.rotation), 0, 360, 15));
 		rotationSpinner.setPreferredSize(new Dimension(80, 20));
@@ -117,12 +144,68 @@ public class FractalGUI extends JFrame {
 				double newValue = Math.toRadians((double)rotationSpinner.getValue());
 				if(label.rotation != newValue) {
 					label.rotation = newValue;
-					label.updateTimer.restart();
+					label.reframe();
 				}
 			}
 		});
 		controlPanel.add(rotationSpinner);
 		
+		threadSpinner = new JSpinner(new SpinnerNumberModel(label.scheduler.nThreads, 1, Runtime.getRuntime().availableProcessors(), 1));
+		threadSpinner.setPreferredSize(new Dimension(80, 20));
+		threadSpinner.setMaximumSize(new Dimension(80, 20));
+		threadSpinner.addChangeListener(new ChangeListener(){
+			// change the number of calculation threads when the spinner is changed (takes effect from the next update)
+			public void stateChanged(ChangeEvent arg0){
+				label.scheduler.setThreadCount((int)threadSpinner.getValue());
+			}
+		});
+		controlPanel.add(threadSpinner);
+		
+		cycleSpinner = new JSpinner(new SpinnerCyclicNumberModel(label.palette.cycleOffset, 0, label.palette.gradient.length, 0.25));
+		cycleSpinner.setPreferredSize(new Dimension(80, 20));
+		cycleSpinner.setMaximumSize(new Dimension(80, 20));
+		cycleSpinner.addChangeListener(new ChangeListener(){
+			// recolour the image (without recalculating it) when the spinner is changed
+			public void stateChanged(ChangeEvent arg0){
+				double newValue = (double)cycleSpinner.getValue();
+				if(label.palette.cycleOffset != newValue) {
+					label.setPalette(label.palette.withCycleOffset(newValue));
+				}
+			}
+		});
+		controlPanel.add(cycleSpinner);
+		
+		colouringBox = new JComboBox<String>(FractalPalette.COLOURING_NAMES);
+		colouringBox.setSelectedIndex(label.palette.colouring);
+		colouringBox.setPreferredSize(new Dimension(80, 20));
+		colouringBox.setMaximumSize(new Dimension(80, 20));
+		colouringBox.addActionListener(new ActionListener(){
+			// recolour the image (without recalculating it) when another colouring is chosen
+			public void actionPerformed(ActionEvent arg0){
+				int newValue = colouringBox.getSelectedIndex();
+				if(label.palette.colouring != newValue) {
+					label.setPalette(label.palette.withColouring(newValue));
+				}
+			}
+		});
+		controlPanel.add(colouringBox);
+		
+		modeBox = new JComboBox<String>(FractalLabel.MODE_NAMES);
+		modeBox.setSelectedIndex(label.renderMode);
+		modeBox.setPreferredSize(new Dimension(80, 20));
+		modeBox.setMaximumSize(new Dimension(80, 20));
+		modeBox.addActionListener(new ActionListener(){
+			// recalculate the fractal when another rendering mode is chosen
+			public void actionPerformed(ActionEvent arg0){
+				int newValue = modeBox.getSelectedIndex();
+				if(label.renderMode != newValue) {
+					label.renderMode = newValue;
+					label.reframe();
+				}
+			}
+		});
+		controlPanel.add(modeBox);
+		
 		progressBar = new JProgressBar(0, 100);
 		progressBar.setPreferredSize(new Dimension(80, 20));
 		progressBar.setMaximumSize(new Dimension(80, 20));
@@ -1,4 +1,5 @@
 import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -8,22 +9,17 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.awt.image.DataBufferInt;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.function.IntConsumer;
 
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.Timer;
 
@@ -34,21 +30,36 @@ import javax.swing.Timer;
  *             - contains objects to multithread these calculations
  *             - contains an abort() method to halt these calculations
  *         - contains fields describing the current fractal calculation and framing
+ *             - snapshots them into an immutable FractalView for each calculation, calculated by a RenderJob of its own
+ *                 - aborting makes the job stale without waiting for it, and images of stale jobs are discarded
+ *             - on pan, zoom, rotate, or resize, shows the current image reprojected onto the new framing until the new job's passes
+ *               replace it
+ *             - calculates in coarse-to-fine passes, showing a preview image after each pass
+ *             - in views symmetric about the real axis, calculates only one side and mirrors it (see FractalView.getMirrorPixel)
+ *             - times each job's first image and total time, cancelled or not (see RenderMetrics)
+ *             - copies samples of recent calculations that land on the same points into each new calculation (see SampleCache), keeping
+ *               as many as fit in SampleCache.CACHE_BYTES
+ *             - once a job has finished, prefetches the views a wheel zoom would ask for next in the background, and shows a
+ *               prefetched view at once if the next input asks for it (the update that follows copies it instead of calculating it)
+ *                 - when maxIter is increased, samples that reached the old maxIter are resumed from their last z_n (see OrbitStore)
  *         - contains methods for transforming between image space (pixel indices) and fractal space (2D Cartesian coordinates)
+ *         - in MODE_BUDDHABROT, accumulates the density of escaping orbits instead (see BuddhabrotCalculator), showing an image after
+ *           each round of samples until BUDDHABROT_SAMPLES have been taken
+ *         - with autoMaxIter, chooses maxIter for each view from a probe grid before calculating it, and raises it if a progressive
+ *           pass shows too many samples still escaping near it (see MaxIterEstimator); the job is then replaced by one at the higher
+ *           maxIter, which continues the same render from the first pass, resuming the samples that reached the lower one
+ *         - chooses the cheapest arithmetic that can resolve the pixels (see FractalCalculator.selectPrecision)
+ *             - uses perturbation around a high-precision reference orbit once double precision can't resolve the pixels
  *     - contains listeners to change the framing when the JLabel is interacted with
  * - contains static fields/methods for converting floating-point fractal values into colours
+ *     - images are coloured in parallel rows with a FractalPalette lookup table, writing straight into the image's pixel array
+ *     - setPalette() recolours the image from the retained fractal array, without recalculating it
+ *     - images are coloured off the event dispatch thread and outside imageLock, which is only held to swap a finished image in
  */
 
 /* TODO:
- * - add reuse of previous calculations where possible
- * - try exploiting the set's connectedness to avoid calculating values that escape
- * - add option to use less threads
- * - add antialiasing (MSAA, but possibly also over/undersampling)
- *     - try adaptive antialiasing, where sampling goes until a certain precision is reached
  * - figure out how to do coloring properly by examining how iteration counts change from one repeated pattern to the next
- * - add customizable and encapsulated coloring
- *     - add color map customization
- *     - add scaling customization
+ * - add GUI controls for the gradient and log-scaling parameters (FractalPalette.withGradient and withLogScaling)
  */
 
 public class FractalLabel extends JLabel {
@@ -57,12 +68,22 @@ public class FractalLabel extends JLabel {
 	
 	// antialiasing strategies
 	static final int ANTIALIAS_NONE = 0;
-	static final int ANTIALIAS_RANDOM = 1;
+	static final int ANTIALIAS_RANDOM = 1;		// antialiasingFactor samples at every pixel (see SamplePattern)
+	static final int ANTIALIAS_ADAPTIVE = 2;	// the same samples, added only to pixels that differ from their neighbours until they converge
+	
+	// rendering modes
+	static final int MODE_ESCAPE_TIME = 0;	// colour each point by how fast it escapes
+	static final int MODE_BUDDHABROT = 1;	// colour each pixel by how many escaping orbits pass through it
+	static String[] MODE_NAMES = {"escape time", "Buddhabrot"};
+	static long BUDDHABROT_SAMPLES = 1L << 30;	// samples a Buddhabrot takes before it's finished
 	
 	// miscellaneous static fields
 	static int UPDATE_DELAY = 100;		// time to wait after last GUI input before updating
-	static int N_RUNNABLES = 4000;		// efficiency seems to plateau between 1k and 10k Runnables (for 1MP of fractal mostly reaching maxiter = 1000)
 	static int PROGRESS_DELAY = 100;	// time between progress updates
+	static int[] PASS_STRIDES = {4, 2, 1};	// pixel spacing of the progressive passes (1/16 of the pixels, then 1/4, then all of them)
+	static double ADAPTIVE_THRESHOLD = 0.1;	// colour difference (in gradient steps) above which adaptive antialiasing adds samples to a pixel
+	static boolean PREFETCH = true;		// whether to calculate likely next views while the user looks at a finished one
+	static double[] PREFETCH_ZOOMS = {0.5, 2};	// widths of the prefetched views, relative to the finished one (in order of likelihood)
 	
 	// static fields for default colour scheme
 	static double logScalingA = 168, logScalingB = 0.05, logScalingC = 19;	// log-scaling parameters (n -> A*log(B*(n + C)))
@@ -82,43 +103,54 @@ public class FractalLabel extends JLabel {
 		{106, 52, 3},
 		{66, 30, 15},
 	};
+	static FractalPalette defaultPalette = new FractalPalette(defaultGradient, logScalingA, logScalingB, logScalingC);	// lookup table of the above
 
 	// fractal math parameters
 	int maxIter;		// maximum number of iterations to attempt
+	boolean autoMaxIter;	// whether to choose maxIter for each view (see MaxIterEstimator)
 	double escapeRad;	// radius from origin beyond which a point is considered to have escaped
+	boolean usePerturbation;	// whether to switch to perturbation when double precision is insufficient
+	boolean usePeriodicityChecking;	// whether to stop iterating points whose orbits have become periodic
+	boolean useFloat;	// whether to allow float precision for shallow views (off by default: no faster than double, and less accurate)
+	int renderMode;		// MODE_ESCAPE_TIME or MODE_BUDDHABROT
 	
 	// framing parameters in fractal space
 	double centerX;		// x or real coordinate of center of view
 	double centerY;		// y or imaginary coordinate of center of view
+	BigDecimal centerXPrecise;	// arbitrary-precision center coordinates (centerX and centerY are these rounded to double)
+	BigDecimal centerYPrecise;
 	double width;		// width of view
 	double rotation;	// rotation angle (CCW camera rotation, or CW fractal rotation) (rad)
 
 	// fractal data and objects to show image
 	int widthPixels;		// pixel size of fractal to calculate
 	int heightPixels;
-	double[][] fractal;		// array to store floating-point fractal values calculated for a grid of points
+	RenderJob job;			// latest update: its view, and the flat array of fractal values it calculates (see RenderJob)
+	SampleCache cache;		// arrays of previous calculations, to copy coinciding samples from
+	SampleCache prefetched;	// arrays of finished prefetched calculations (see prefetch())
+	volatile boolean prefetching;	// whether a prefetch is running
 	BufferedImage image;	// image to display the fractal; same size as and calculated from fractal array
+	FractalView imageView;	// view the image shows (differs from the job's view while a reprojected preview is shown)
 	ImageIcon icon;			// icon for displaying the image
+	FractalPalette palette;	// colouring of the image
+	int imageStride;		// pixel spacing of the grid the image was coloured from (1 once finished, 0 before the first preview or for a Buddhabrot)
+	int imageVersion;		// number of images shown, so an image coloured outside imageLock is only shown if nothing replaced the image since
+	final Object imageLock = new Object();	// held while replacing the job or the image (but not while colouring one)
 	
 	// to track calculation progress
-	int[] progressCounter;	// number of points calculated (in array for call-by-reference)
 	Timer progressTimer;	// timer to report calculation progress
 	FractalGUI gui;			// reference back to GUI (for progress bar)
 	
 	// objects to handle multithreaded calculation
 	Timer updateTimer;							// Timer to call fractal update at a delay after last user input
-	ThreadFactory fractalThreadFactory;			// ThreadFactory to create threads for fractal calculation
 	SwingWorker<Object, Object> updateWorker;	// Worker to execute updates in a separate, stoppable process
-	ExecutorService fractalThreadPool;			// ThreadPool to handle parallel calculation of fractal values
+	FractalScheduler scheduler;					// long-lived thread pool that calculates fractal values in tiles
+	int solver;									// solver of each job's calculation (see FractalCalculator.solver)
+	boolean verifyFills;						// whether Mariani-Silver fills are calculated anyway, to count the wrong ones
 	
 	// antialiasing
 	int antialiasingType;
 	Number antialiasingFactor;
-	Point2D.Double[][] randomAntialiasPoints;
-	// TODO: when using antialising, change
-	//     - fractal array size
-	//     - points passed to runnable
-	//     - image drawing
 	
 	// constructor: initialize fractal/framing parameters, JLabel, calculation objects, and listeners
 	FractalLabel(FractalGUI g){// TODO: clean up style
@@ -136,31 +168,40 @@ public class FractalLabel extends JLabel {
 		// initialize math parameters
 		maxIter = 256;
 		escapeRad = 420.69;
-		antialiasingType = ANTIALIAS_RANDOM;
+		antialiasingType = ANTIALIAS_ADAPTIVE;
 		antialiasingFactor = 4;
+		usePerturbation = true;
+		usePeriodicityChecking = true;
 		
 		// initialize framing parameters
-		centerX = -0.69420;
-		centerY = 0;
+		centerXPrecise = new BigDecimal("-0.69420");
+		centerYPrecise = BigDecimal.ZERO;
+		centerX = centerXPrecise.doubleValue();
+		centerY = centerYPrecise.doubleValue();
 		width = 5;
 		rotation = 0;
 		
 		// initialize objects to support calculation
-		fractalThreadFactory = new ThreadFactory(){
-			public Thread newThread(Runnable r){
-				Thread t = new Thread(r);
-				t.setPriority(Thread.MIN_PRIORITY);// priority is 1-10
-				return t;
-			}
-		};
+		palette = defaultPalette;
+		scheduler = new FractalScheduler();
+		solver = FractalScheduler.SOLVER_BRUTE_FORCE;
+		cache = new SampleCache();
+		prefetched = new SampleCache(PREFETCH_ZOOMS.length);
 		
 		updateTimer = new Timer(UPDATE_DELAY, new ActionListener() {
 			// after a delay, abort any previous update and start a new update
 			public void actionPerformed(ActionEvent e) {
 				updateWorker = new SwingWorker<Object, Object>(){
 			        protected Object doInBackground(){
-						updateFractal();
-						updateImage();
+						RenderJob job = updateFractal(true);
+						if(job != null) {
+							updateImage(job);
+							scheduler.metrics.endRender(job.render, false);
+							System.out.println(scheduler.metrics.getReport());
+							if(PREFETCH && renderMode == MODE_ESCAPE_TIME) {
+								prefetch(job);
+							}
+						}
 						return null;
 			        }
 			    };
@@ -169,11 +210,7 @@ public class FractalLabel extends JLabel {
 		});
 		updateTimer.setRepeats(false);
 		
-		loadRandomAntialiasPoints();
-		
 		// initialize progress reporting
-		progressCounter = new int[1];
-		
 		progressTimer = new Timer(PROGRESS_DELAY, new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				reportProgress();
@@ -182,190 +219,523 @@ public class FractalLabel extends JLabel {
 
 		// add listeners
 		addComponentListener(new ComponentAdapter() {
-			// on window resize, start update timer
+			// on window resize, show a preview and start update timer
 			public void componentResized(ComponentEvent e) {
 				System.out.println(String.format("FractalLabel resized (%s, %s)", getWidth(), getHeight()));
-				abort();
-				updateTimer.restart();
+				reframe();
 			}
 		});
 		
 		addMouseListener(new MouseAdapter() {
-			// on click, center frame on clicked point and start update timer
+			// on click, center frame on clicked point, show a preview, and start update timer
 			public void mouseClicked(MouseEvent e) {
-				Point2D.Double newCenter = getFractalXY(e.getPoint());
-				centerX = newCenter.getX();
-				centerY = newCenter.getY();
+				// move the center by the clicked offset in full precision, so the center stays exact beyond double precision
+				// the offset is a whole number of pixels, so samples of the previous calculation can be reused exactly
+				Point2D.Double offset = getFractalOffsetXY(e.getPoint());
+				MathContext mc = getMathContext();
+				centerXPrecise = centerXPrecise.add(new BigDecimal(offset.getX()), mc);
+				centerYPrecise = centerYPrecise.add(new BigDecimal(offset.getY()), mc);
+				centerX = centerXPrecise.doubleValue();
+				centerY = centerYPrecise.doubleValue();
 				System.out.println(String.format("FractalLabel center changed (%s, %s)", centerX, centerY));
-				abort();
-				updateTimer.restart();
+				reframe();
 			}
 		});
 		
 		addMouseWheelListener(new MouseWheelListener() {
-			// on mouse scroll, zoom accordingly and start update timer
+			// on mouse scroll, zoom accordingly, show a preview, and start update timer
 			public void mouseWheelMoved(MouseWheelEvent e) {
 				width *= Math.pow(2, e.getWheelRotation());
 				System.out.println(String.format("FractalLabel width changed (%s)", width));
-				abort();
-				updateTimer.restart();
+				reframe();
 			}
 		});
 	}
 	
-	// load list of random points for antialiasing
-	// TODO: this should handle exceptions better
-	void loadRandomAntialiasPoints() {
-		try {
-			List<String> fileLines = Files.readAllLines(Paths.get("assets/randompoints/points.txt"), StandardCharsets.UTF_8);
-			randomAntialiasPoints = new Point2D.Double[fileLines.size()][];
-			for(int i = 0; i < fileLines.size(); i++) {
-				String[] pointStrings = fileLines.get(i).split(" ");
-				randomAntialiasPoints[i] = new Point2D.Double[pointStrings.length];
-				for(int j = 0; j < pointStrings.length; j++) {
-					String[] coordinateStrings = pointStrings[j].split(",");
-					randomAntialiasPoints[i][j] = new Point2D.Double(Double.parseDouble(coordinateStrings[0]), Double.parseDouble(coordinateStrings[1]));
-				}
-			}
-		} catch (IOException e) { e.printStackTrace(); }
+	// describe a calculation of the current window size and fractal/framing parameters
+	FractalView createView() {
+		return createView(width);
 	}
 	
-	// recreate fractal array to match current window size and fractal/framing parameters, then calculate its contents
-	void updateFractal() {
-		System.out.println("Updating fractal...");
-		long startTime = System.currentTimeMillis();
-		progressCounter[0] = 0;
-		
-		// initialize fractalThreadPool
-		int nThreads = Runtime.getRuntime().availableProcessors(); // efficiency seems to increase with nThreads until nThreads = [CPU nThreads], and slowly decrease above that
-		fractalThreadPool = Executors.newFixedThreadPool(nThreads, fractalThreadFactory);
-		
-		// redeclare fractal array with size based on antialiasing type
-		widthPixels = getWidth();
-		heightPixels = getHeight();
+	// describe a calculation as above, with another width
+	FractalView createView(double width) {
+		Point2D.Double[] sampleOffsets;	// sub-pixel offsets of the samples of each pixel
 		switch (antialiasingType) {
 			case ANTIALIAS_NONE:
-				fractal = new double[widthPixels][heightPixels];
+				sampleOffsets = null;
 				break;
 			case ANTIALIAS_RANDOM:
-				fractal = new double[widthPixels*(int)antialiasingFactor][heightPixels]; // should react if factor isn't an integer > 1
+			case ANTIALIAS_ADAPTIVE:
+				sampleOffsets = SamplePattern.getOffsets(antialiasingFactor.intValue());
 				break;
 			default:
-				System.err.println(String.format("Warning: antialiasingType %s not understood; using ANTIALIAS_NONE"));
+				System.err.println(String.format("Warning: antialiasingType %s not understood; using ANTIALIAS_NONE", antialiasingType));
 				antialiasingType = ANTIALIAS_NONE;
-				fractal = new double[widthPixels][heightPixels];
+				sampleOffsets = null;
 				break;
 		}
-
-		Point2D.Double zeros = getFractalXY(new Point(0, 0));
-		Point2D.Double ones = getFractalXY(new Point(1, 1));
-		Point2D.Double twos = getFractalXY(new Point(2, 2));
-		if(zeros.x == ones.x || zeros.y == ones.y || ones.x == twos.x || ones.y == twos.y) {
-			System.out.println("Warning: double precision insufficient");
+		if(renderMode == MODE_BUDDHABROT) {
+			sampleOffsets = null;	// (orbits are counted per pixel, so there are no samples of the view's own)
+		}
+		return new FractalView(centerXPrecise, centerYPrecise, width, rotation, getWidth(), getHeight(), sampleOffsets,
+				maxIter, escapeRad, usePerturbation, usePeriodicityChecking, useFloat);
+	}
+	
+	// create a job calculating a view with the current solver, tagged with a scheduler generation
+	RenderJob createJob(FractalView view, int generation) {
+		RenderJob job = new RenderJob(view, generation);
+		job.calculator.solver = solver;
+		job.calculator.verifyFills = verifyFills;
+		return job;
+	}
+	
+	// start a new job with a fractal array to match current window size and fractal/framing parameters, then calculate its contents
+	// (with autoMaxIter, estimating maxIter for the view first if probe is set)
+	// returns the job, or null if the calculation was aborted before finishing
+	RenderJob updateFractal(boolean probe) {
+		System.out.println("Updating fractal...");
+		long startTime = System.currentTimeMillis();
+		if(prefetching) {
+			scheduler.cancel();		// (stop prefetching before this job takes its generation)
+		}
+		if(probe && autoMaxIter && renderMode == MODE_ESCAPE_TIME) {
+			int generation = scheduler.generation;
+			int estimate = MaxIterEstimator.estimate(createView(), scheduler, generation);
+			if(estimate < 0) {
+				System.out.println("Cancelled maxIter estimate in FractalLabel.updateFractal()");
+				return null;
+			}
+			System.out.println(String.format("Estimated maxIter %s in %.2f seconds", estimate, 0.001*(System.currentTimeMillis() - startTime)));
+			setMaxIter(MaxIterEstimator.adjust(maxIter, estimate));
 		}
 		
-		for(int i=0; i<fractal.length; i++) {
-			for(int j=0; j<fractal[0].length; j++) {
-				fractal[i][j] = FractalCalculator.NOT_CALCULATED;
+		// describe the calculation, and create a job with a fractal array based on it
+		// (every pass is skipped, and its images discarded, once the job is aborted)
+		RenderJob job = startJob(null);
+		if(renderMode == MODE_BUDDHABROT) {
+			return updateBuddhabrot(job, startTime);
+		}
+		fillJob(job);
+		FractalView view = job.view;
+		double[] fractal = job.fractal;
+		
+		// calculate in coarse-to-fine passes (one sample per pixel on a sparser grid, then the remaining antialiasing samples),
+		// publishing a preview after each pass but the last; later passes skip the samples calculated by earlier ones
+		FractalCalculator calculator = job.calculator;
+		for(int pass = 0; pass < PASS_STRIDES.length; pass++) {
+			calculator.setPass(PASS_STRIDES[pass], 1);
+			if(!calculatePass(calculator, job.generation)) {
+				return cancelled(job);
+			}
+			if(autoMaxIter) {
+				// if this pass shows maxIter is too low, replace the job with one at a higher maxIter that continues the same render, and
+				// start again from the first pass (the samples calculated so far are copied or resumed, so it costs little)
+				int raised = MaxIterEstimator.extrapolate(view.maxIter, MaxIterEstimator.countTail(view, fractal, PASS_STRIDES[pass]));
+				if(raised > view.maxIter) {
+					System.out.println(String.format("Raising maxIter to %s after pass (every %s pixels)", raised, PASS_STRIDES[pass]));
+					setMaxIter(raised);
+					job = startJob(job.render);
+					fillJob(job);
+					view = job.view;
+					fractal = job.fractal;
+					calculator = job.calculator;
+					pass = -1;
+					continue;
+				}
+			}
+			if(PASS_STRIDES[pass] > 1 || view.samplesPerPixel > 1) {
+				updatePreviewImage(job, PASS_STRIDES[pass]);
+			}
+		}
+		if(view.samplesPerPixel > 1) {
+			if(antialiasingType == ANTIALIAS_ADAPTIVE) {
+				boolean finished = scheduler.calculateAdaptive(calculator, job.generation, defaultPalette, ADAPTIVE_THRESHOLD, new IntConsumer() {
+					public void accept(int nSamples) {
+						System.out.println(String.format("Adding %s antialiasing samples", nSamples));
+						gui.progressBar.setMaximum(gui.progressBar.getMaximum() + nSamples);
+					}
+				});
+				if(!finished) {
+					System.out.println("Cancelled fractal calculation in FractalLabel.updateFractal()");
+					return cancelled(job);
+				}
+			}
+			else {
+				calculator.setPass(1, view.samplesPerPixel);
+				if(!calculatePass(calculator, job.generation)) {
+					return cancelled(job);
+				}
 			}
 		}
 		
-		// make a list of indices in fractal array that require calculation
-		ArrayList<Point> allIndices = new ArrayList<Point>();
+		progressTimer.stop();
+		gui.progressBar.setValue(gui.progressBar.getMaximum());
+		System.out.println(String.format("Done updating fractal (%s threads, %.2f seconds)", scheduler.nThreads, 0.001*(System.currentTimeMillis() - startTime)));
+		reportCounts(job);
+		return job;
+	}
+	
+	// create a job for the current window size and fractal/framing parameters, and make it the label's job
+	// (it times a new render, or continues render if not null, e.g. when it replaces a job whose maxIter was too low)
+	RenderJob startJob(RenderMetrics.RenderEvent render) {
+		RenderJob job = createJob(createView(), scheduler.generation);
+		if(render == null) {
+			render = scheduler.metrics.startRender(job.view);
+		}
+		render.maxIter = job.view.maxIter;
+		job.render = render;
+		synchronized(imageLock) {
+			this.job = job;
+			widthPixels = job.view.widthPixels;
+			heightPixels = job.view.heightPixels;
+			imageStride = 0;
+		}
+		return job;
+	}
+	
+	// prepare a new job's escape-time calculation: copy samples of previous calculations that land on the same points, then cache it
+	// (even if it gets aborted), and start reporting its progress
+	void fillJob(RenderJob job) {
+		FractalView view = job.view;
+		double[] fractal = job.fractal;
+		System.out.println(String.format("Using %s precision", FractalCalculator.PRECISION_NAMES[view.precision]));
+		
+		// (samples that reached a lower maxIter are resumed from their last z_n instead of being copied)
+		int nReused = prefetched.fill(view, fractal, job.orbits, job.resume);
+		nReused += cache.fill(view, fractal, job.orbits, job.resume);
+		job.startResuming();
+		cache.add(view, fractal, job.orbits);
+		trimCaches();
+		System.out.println(String.format("Reused %s of %s samples; resuming %s", nReused, fractal.length, job.resume.size));
+		
+		// count the entries in fractal array that require calculation (adaptive antialiasing adds to this as it finds pixels to sample)
+		int samplesCounted = antialiasingType == ANTIALIAS_ADAPTIVE ? 1 : view.samplesPerPixel;
+		int nUncalculated = 0;
 		for(int i=0; i<fractal.length; i++) {
-			for(int j=0; j<fractal[0].length; j++) {
-				if(fractal[i][j] == FractalCalculator.NOT_CALCULATED) {
-					allIndices.add(new Point(i, j));
-				}
+			if(fractal[i] == FractalCalculator.NOT_CALCULATED && i%view.samplesPerPixel < samplesCounted) {
+				nUncalculated++;
 			}
 		}
 		
-		gui.progressBar.setMaximum(allIndices.size());
+		gui.progressBar.setMaximum(nUncalculated);
 		
 		// start reporting progress
 		reportProgress();
 		progressTimer.start();
+	}
+	
+	// accumulate the orbit density of a new job's view, in rounds of doubling size, showing an image after each round but the last
+	// returns the job, or null if the calculation was aborted before finishing
+	RenderJob updateBuddhabrot(RenderJob job, long startTime) {
+		BuddhabrotCalculator buddhabrot = new BuddhabrotCalculator(job.view, job.progress, job.counts);
+		job.buddhabrot = buddhabrot;
+		gui.progressBar.setMaximum((int)(BUDDHABROT_SAMPLES/BuddhabrotCalculator.CHUNK_SAMPLES));
+		reportProgress();
+		progressTimer.start();
 		
-		// divide calculations evenly between Runnables
-		int pointsPerRunnable = allIndices.size()/N_RUNNABLES;	// all Runnables calculate this many points
-		int leftover = allIndices.size() %N_RUNNABLES;			// this many Runnables calculate one extra point
-		for(int p = 0; p < N_RUNNABLES; p++) {
-			// figure out which indices to calculate in this Runnable
-			int start = pointsPerRunnable*p + Math.min(p, leftover);	// first index in allIndices for this Runnable
-			int end = start + pointsPerRunnable;						// last index
-			if(p < leftover) {
-				end += 1;
+		long roundSamples = BuddhabrotCalculator.FIRST_ROUND_SAMPLES;
+		while(buddhabrot.samples < BUDDHABROT_SAMPLES) {
+			long roundStart = System.currentTimeMillis();
+			roundSamples = Math.min(roundSamples, BUDDHABROT_SAMPLES - buddhabrot.samples);
+			if(!buddhabrot.calculateRound(scheduler, job.generation, roundSamples)) {
+				System.out.println("Cancelled Buddhabrot calculation in FractalLabel.updateBuddhabrot()");
+				return cancelled(job);
 			}
-			
-			// build and execute Runnable
-			int[][] indices = new int[end - start][2];					// this Runnable's sub-array of allIndices
-			Point2D.Double[] points = new Point2D.Double[end - start];	// this Runnable's points in fractal space
-			for(int i1d = start; i1d < end; i1d++) {
-				indices[i1d - start][0] = allIndices.get(i1d).x;
-				indices[i1d - start][1] = allIndices.get(i1d).y;
-				switch (antialiasingType) {
-					case ANTIALIAS_NONE:
-						points[i1d - start] = getFractalXY(new Point(indices[i1d - start][0], indices[i1d - start][1]));
-						break;
-					case ANTIALIAS_RANDOM:
-						Point2D.Double pixelCenter = getFractalXY(new Point(indices[i1d - start][0]/(int)antialiasingFactor, indices[i1d - start][1]));
-						double pixelSize = width/widthPixels;
-						Point2D.Double antialiasOffsetFactor = randomAntialiasPoints[(int)antialiasingFactor - 2][indices[i1d - start][0]%(int)antialiasingFactor];
-						points[i1d - start] = new Point2D.Double(pixelCenter.x + pixelSize*antialiasOffsetFactor.x, pixelCenter.y + pixelSize*antialiasOffsetFactor.y);
-						break;
-				}
+			System.out.println(String.format("Buddhabrot round of %s samples done in %.2f seconds (%s samples in total)", roundSamples,
+					0.001*(System.currentTimeMillis() - roundStart), buddhabrot.samples));
+			if(buddhabrot.samples < BUDDHABROT_SAMPLES) {
+				updatePreviewImage(job, 0);
 			}
-			fractalThreadPool.execute(new FractalCalculator(fractal, points, indices, maxIter, escapeRad, progressCounter));
-		}
-		
-		// wait until calculation is finished
-		if(!fractalThreadPool.isShutdown()) {
-			fractalThreadPool.shutdown();								// stop accepting new Runnables
-			try {
-				fractalThreadPool.awaitTermination(1, TimeUnit.DAYS);	// wait for existing Runnables to finish running
-			} catch (InterruptedException e) { System.out.println("Interrupted ThreadPool shutdown in FractalLabel.updateFractal()"); }
+			roundSamples = Math.min(2*roundSamples, BuddhabrotCalculator.MAX_ROUND_SAMPLES);
 		}
 		
 		progressTimer.stop();
-		progressCounter[0] = allIndices.size();
-		reportProgress();
-		System.out.println(String.format("Done updating fractal (%s threads, %s processes, %.2f seconds)", nThreads, N_RUNNABLES, 0.001*(System.currentTimeMillis() - startTime)));
+		gui.progressBar.setValue(gui.progressBar.getMaximum());
+		System.out.println(String.format("Done updating Buddhabrot (%s threads, %.2f seconds)", scheduler.nThreads, 0.001*(System.currentTimeMillis() - startTime)));
+		reportCounts(job);
+		return job;
 	}
-
-	// recreate fractal image to match fractal array
-	void updateImage() {
-		System.out.println("Updating image... ");
-		
-		// create new image and render the contents of the fractal array to it
-		image = new BufferedImage(widthPixels, heightPixels, BufferedImage.TYPE_INT_RGB);
-		switch (antialiasingType) {
-			case ANTIALIAS_NONE:
-				for(int i = 0; i < image.getWidth(); i++) {
-					for(int j = 0; j < image.getHeight(); j++) {
-						image.setRGB(i, j, getIterationRGB(fractal[i][j], defaultGradient));
-					}
-				}
+	
+	// while the user looks at a finished job's image, calculate the views the next input is most likely to ask for (PREFETCH_ZOOMS),
+	// keeping each one that finishes in prefetched
+	// - the calculations run on the pool's low-priority threads, in the finished job's generation, so any input (which aborts) or new
+	//   update cancels them within a sample
+	// - each is calculated in one pass, without previews or progress, from the samples of cached calculations
+	void prefetch(RenderJob finished) {
+		prefetching = true;
+		for(double zoom : PREFETCH_ZOOMS) {
+			if(finished.isStale(scheduler)) {
 				break;
-			case ANTIALIAS_RANDOM:
-				for(int i = 0; i < image.getWidth(); i++) {
-					for(int j = 0; j < image.getHeight(); j++) {
-						Double[] pixelIterations = new Double[(int)antialiasingFactor];
-						for(int k = 0; k < (int)antialiasingFactor; k++) {
-							int ik = i*(int)antialiasingFactor + k;
-							pixelIterations[k] = fractal[ik][j];
-						}
-						Arrays.sort(pixelIterations, FractalCalculator.ITERATION_COMPARATOR);
-						image.setRGB(i, j, getIterationRGB(pixelIterations[pixelIterations.length/2], defaultGradient)); // median-ish
-					}
+			}
+			long startTime = System.currentTimeMillis();
+			RenderJob job = createJob(createView(finished.view.width*zoom), finished.generation);
+			if(prefetched.find(job.view) != null) {
+				continue;
+			}
+			prefetched.fill(job.view, job.fractal, job.orbits, job.resume);
+			cache.fill(job.view, job.fractal, job.orbits, job.resume);
+			job.startResuming();
+			FractalCalculator calculator = job.calculator;
+			calculator.setPass(1, 1);
+			boolean done = scheduler.calculate(calculator, job.generation);
+			if(done && job.view.samplesPerPixel > 1) {
+				if(antialiasingType == ANTIALIAS_ADAPTIVE) {
+					done = scheduler.calculateAdaptive(calculator, job.generation, defaultPalette, ADAPTIVE_THRESHOLD, null);
+				}
+				else {
+					calculator.setPass(1, job.view.samplesPerPixel);
+					done = scheduler.calculate(calculator, job.generation);
 				}
+			}
+			if(!done) {
+				System.out.println("Cancelled prefetch");
 				break;
+			}
+			prefetched.add(job.view, job.fractal, job.orbits);
+			trimCaches();
+			System.out.println(String.format("Prefetched view of width %s in %.2f seconds", job.view.width, 0.001*(System.currentTimeMillis() - startTime)));
 		}
+		prefetching = false;
+	}
+	
+	// set maxIter from the calculation, and show it in the GUI's spinner (which then leaves it alone, since it's unchanged)
+	void setMaxIter(int value) {
+		maxIter = value;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				gui.iterationSpinner.setValue(maxIter);
+			}
+		});
+	}
+	
+	// drop cached calculations until the caches fit in SampleCache.CACHE_BYTES together, prefetched ones first (the latest update's
+	// calculation is always kept)
+	void trimCaches() {
+		while(cache.getBytes() + prefetched.getBytes() > SampleCache.CACHE_BYTES && (prefetched.removeOldest(0) || cache.removeOldest(1))) {
+			System.out.println("Dropped a cached calculation to stay within the cache's memory limit");
+		}
+	}
+	
+	// record in the metrics that a job was aborted before finishing; returns null, for updateFractal to return
+	RenderJob cancelled(RenderJob job) {
+		scheduler.metrics.endRender(job.render, true);
+		return null;
+	}
+
+	// calculate the current pass of a calculator, and report its timing
+	// returns false if the update was aborted before finishing
+	boolean calculatePass(FractalCalculator calculator, int generation) {
+		long startTime = System.currentTimeMillis();
+		if(!scheduler.calculate(calculator, generation)) {
+			System.out.println("Cancelled fractal calculation in FractalLabel.updateFractal()");
+			return false;
+		}
+		System.out.println(String.format("Pass (every %s pixels, %s samples%s) done in %.2f seconds; %s", calculator.passStride, calculator.passSamples,
+				calculator.passPixels == null ? "" : ", masked", 0.001*(System.currentTimeMillis() - startTime), calculator.getTileReport()));
+		return true;
+	}
+	
+	// recreate fractal image to match the fractal array of a finished job, unless the job has gone stale
+	void updateImage(RenderJob job) {
+		System.out.println("Updating image... ");
 		
-		// display new image
+		// render the contents of the fractal array to a new image outside the lock, then display it unless the job has gone stale
+		BufferedImage newImage = job.buddhabrot == null ? renderImage(job.view, job.fractal) : renderBuddhabrotImage(job.buddhabrot);
+		synchronized(imageLock) {
+			if(job != this.job || job.isStale(scheduler)) {
+				System.out.println("Discarded image of stale job");
+				return;
+			}
+			imageStride = job.buddhabrot == null ? 1 : 0;
+			showImage(newImage, job.view);
+			scheduler.metrics.firstImage(job.render);
+		}
+		
+		System.out.println("Done updating image");
+	}
+	
+	// recreate fractal image from the first sample of each pixel on the grid of a progressive pass (or from the density so far, for a
+	// Buddhabrot), before the job has finished (unless the job has gone stale)
+	void updatePreviewImage(RenderJob job, int stride) {
+		BufferedImage newImage = job.buddhabrot == null ? renderPreviewImage(job, stride) : renderBuddhabrotImage(job.buddhabrot);
+		synchronized(imageLock) {
+			if(job != this.job || job.isStale(scheduler)) {
+				return;
+			}
+			imageStride = stride;
+			showImage(newImage, job.view);
+			scheduler.metrics.firstImage(job.render);
+		}
+	}
+	
+	// display an image of a view (called holding imageLock)
+	void showImage(BufferedImage newImage, FractalView newImageView) {
+		image = newImage;
+		imageView = newImageView;
+		imageVersion++;
 		icon.setImage(image);
 		updateUI();
+	}
+	
+	// respond to a change of the framing parameters: abort the current update, show the current image reprojected onto the new
+	// framing at once (replaced by a prefetched image of the new framing once it's coloured, if there is one), and start a new update
+	// after a delay
+	void reframe() {
+		abort();
+		showReprojectedPreview();
+		showPrefetchedImage();
+		updateTimer.restart();
+	}
+	
+	// show the image of a finished prefetched calculation of the current window size and framing parameters, if there is one, colouring
+	// it in the background and discarding it if anything else is shown first
+	// returns whether there was one
+	boolean showPrefetchedImage() {
+		if(getWidth() < 1 || getHeight() < 1) {
+			return false;
+		}
+		final FractalView view = createView();
+		final double[] fractal = prefetched.find(view);
+		if(fractal == null) {
+			return false;
+		}
+		final int generation = scheduler.generation;
+		final int version;
+		synchronized(imageLock) {
+			version = imageVersion;
+		}
+		new SwingWorker<Object, Object>(){
+			protected Object doInBackground(){
+				BufferedImage newImage = renderImage(view, fractal);
+				synchronized(imageLock) {
+					if(imageVersion != version || scheduler.generation != generation) {
+						return null;	// (reframed again, or the update's own images have started)
+					}
+					imageStride = 0;	// (the array isn't the current job's, so there's nothing to recolour from until the update)
+					showImage(newImage, view);
+				}
+				System.out.println("Showing prefetched view");
+				return null;
+			}
+		}.execute();
+		return true;
+	}
+	
+	// redraw the current image, transformed from the view it shows to the current window size and framing parameters, as a preview
+	// until the next update's own images replace it (parts of the new view outside the old image are black)
+	void showReprojectedPreview() {
+		if(getWidth() < 1 || getHeight() < 1) {
+			return;
+		}
+		BufferedImage oldImage;
+		FractalView oldImageView;
+		int version;
+		synchronized(imageLock) {
+			oldImage = image;
+			oldImageView = imageView;
+			version = imageVersion;
+		}
+		if(oldImage == null) {
+			return;
+		}
 		
-		System.out.println("Done updating image");
+		// draw outside the lock (shown images are never modified), then swap the preview in unless another image replaced the old one
+		FractalView newView = createView();
+		AffineTransform transform = new AffineTransform();
+		transform.translate(0.5, 0.5);	// image space puts pixel (x, y) at the point (x, y), but drawing puts it at (x + 0.5, y + 0.5)
+		transform.concatenate(newView.getImageTransform(oldImageView));
+		transform.translate(-0.5, -0.5);
+		BufferedImage preview = new BufferedImage(newView.widthPixels, newView.heightPixels, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = preview.createGraphics();
+		g.drawImage(oldImage, transform, null);
+		g.dispose();
+		synchronized(imageLock) {
+			if(imageVersion != version) {
+				return;
+			}
+			imageStride = 0;	// (nothing to recolour from until the new update's first pass)
+			showImage(preview, newView);
+		}
+	}
+	
+	// change the colouring, and recolour the image from the fractal array in the background (without recalculating anything)
+	void setPalette(FractalPalette newPalette) {
+		palette = newPalette;
+		new SwingWorker<Object, Object>(){
+			protected Object doInBackground(){
+				long startTime = System.nanoTime();
+				
+				// colour outside the lock, and only swap the image in if nothing replaced the one it was coloured for meanwhile
+				// (otherwise colour again from the image that did, which may be a later pass of the same job)
+				while(true) {
+					RenderJob imageJob;
+					int stride;
+					int version;
+					synchronized(imageLock) {
+						imageJob = job;
+						stride = imageStride;
+						version = imageVersion;
+					}
+					if(stride == 0) {
+						return null;	// nothing calculated yet; the calculation's own images will use the new palette
+					}
+					BufferedImage newImage = stride == 1 ? renderImage(imageJob.view, imageJob.fractal) : renderPreviewImage(imageJob, stride);
+					synchronized(imageLock) {
+						if(imageVersion == version) {
+							showImage(newImage, imageJob.view);
+							break;
+						}
+					}
+				}
+				System.out.println(String.format("Recoloured image (%s colouring) in %.1f ms", FractalPalette.COLOURING_NAMES[newPalette.colouring],
+						1e-6*(System.nanoTime() - startTime)));
+				return null;
+			}
+		}.execute();
+	}
+	
+	// render the contents of a fractal array (the job's, or a prefetched one) to a new image, colouring rows in parallel straight into
+	// its pixel array
+	BufferedImage renderImage(final FractalView view, final double[] fractal) {
+		BufferedImage image = new BufferedImage(view.widthPixels, view.heightPixels, BufferedImage.TYPE_INT_RGB);
+		final int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		final FractalPalette framePalette = palette.equalise(view, fractal, scheduler);
+		scheduler.forEachRow(view.heightPixels, new IntConsumer() {
+			public void accept(int j) {
+				framePalette.colourRow(view, fractal, j, pixels, j*view.widthPixels, new double[view.samplesPerPixel]);
+			}
+		});
+		return image;
+	}
+	
+	// render the first sample of each pixel on the grid of a progressive pass of a job to a new image
+	// (each pixel takes the colour of the grid pixel at or above and to the left of it)
+	BufferedImage renderPreviewImage(RenderJob job, final int stride) {
+		final FractalView view = job.view;
+		final double[] fractal = job.fractal;
+		BufferedImage image = new BufferedImage(view.widthPixels, view.heightPixels, BufferedImage.TYPE_INT_RGB);
+		final int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		final FractalPalette framePalette = palette.equalise(view, fractal, scheduler);
+		scheduler.forEachRow(view.heightPixels, new IntConsumer() {
+			public void accept(int j) {
+				framePalette.colourPreviewRow(view, fractal, j, stride, pixels, j*view.widthPixels);
+			}
+		});
+		return image;
+	}
+	
+	// render the orbit density of a Buddhabrot to a new image, colouring rows in parallel
+	BufferedImage renderBuddhabrotImage(final BuddhabrotCalculator buddhabrot) {
+		final int widthPixels = buddhabrot.view.widthPixels;
+		BufferedImage image = new BufferedImage(widthPixels, buddhabrot.view.heightPixels, BufferedImage.TYPE_INT_RGB);
+		final int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		final long maxDensity = buddhabrot.getMaxDensity();
+		scheduler.forEachRow(buddhabrot.view.heightPixels, new IntConsumer() {
+			public void accept(int j) {
+				buddhabrot.colourRow(j, maxDensity, pixels, j*widthPixels);
+			}
+		});
+		return image;
 	}
 	
 	// abort fractal calculation
@@ -375,27 +745,34 @@ public class FractalLabel extends JLabel {
 			updateWorker.cancel(true);
 		}
 		
-		// if fractalThreadPool exists, cancel its execution
-		if(fractalThreadPool != null) {
-			fractalThreadPool.shutdownNow();								// stop accepting new Runnables and halt existing ones
-			try {
-				fractalThreadPool.awaitTermination(1, TimeUnit.SECONDS);	// wait for existing Runnables to finish halting
-			} catch (InterruptedException e) { e.printStackTrace(); }
-		}
+		// cancel any calculation in the scheduler, without waiting for it (the job goes stale, tiles already started stop after their
+		// current sample, and the pool is kept)
+		scheduler.cancel();
 		
 		progressTimer.stop();
 	}
 	
 	// transform a point from image space to fractal space
 	Point2D.Double getFractalXY(Point imageXY){
-		double dx = (((double)imageXY.getX())/widthPixels - 0.5)*width;						// x-coordinate relative to center, ignoring rotation
-		double dy = -(((double)imageXY.getY()) - 0.5*fractal[0].length)*width/widthPixels;	// y-coordinate relative to center, ignoring rotation
+		Point2D.Double offset = getFractalOffsetXY(imageXY);
+		return new Point2D.Double(centerX + offset.x, centerY + offset.y);						// add center offset
+	}
+	
+	// transform a point from image space to its offset from the center in fractal space
+	Point2D.Double getFractalOffsetXY(Point imageXY){
+		double dx = (imageXY.getX() - widthPixels/2)*width/widthPixels;		// x-coordinate relative to center (at pixel (widthPixels/2, heightPixels/2)), ignoring rotation
+		double dy = -(imageXY.getY() - heightPixels/2)*width/widthPixels;	// y-coordinate relative to center, ignoring rotation
 		return new Point2D.Double(
-				centerX + dx*Math.cos(rotation) - dy*Math.sin(rotation),						// multiply by rotation matrix and add center offset
-				centerY + dx*Math.sin(rotation) + dy*Math.cos(rotation)
+				dx*Math.cos(rotation) - dy*Math.sin(rotation),									// multiply by rotation matrix
+				dx*Math.sin(rotation) + dy*Math.cos(rotation)
 		);
 	}
 	
+	// precision needed to resolve pixels at the current zoom level, plus some guard digits
+	MathContext getMathContext() {
+		return new MathContext(20 + (int)Math.max(0, Math.ceil(-Math.log10(width/widthPixels))));
+	}
+	
 	// transform a point from fractal space to image space
 	Point getImageXY(Point2D.Double fractalXY){
 		double dxt = fractalXY.getX() - centerX;					// temporary x
@@ -403,40 +780,61 @@ public class FractalLabel extends JLabel {
 		double dx = dxt*Math.cos(rotation) + dy*Math.sin(rotation);	// multiply by inverse of rotation matrix
 		dy = -dxt*Math.sin(rotation) + dy*Math.cos(rotation);		// can re-use double dy
 		return new Point(
-				(int)(widthPixels*(0.5 + dx/width) + 0.5),
-				(int)(0.5*fractal[0].length - dy*widthPixels/width + 0.5)
+				(int)(widthPixels/2 + dx*widthPixels/width + 0.5),
+				(int)(heightPixels/2 - dy*widthPixels/width + 0.5)
 		);
 	}
 	
-	// convert fractal value to colour code
+	// convert fractal value to colour code (see FractalPalette, which tabulates this for the default gradient)
 	static int getIterationRGB(double iterations, int[][] gradientRGB) {
 		// return black if point didn't escape
 		if(iterations == FractalCalculator.REACHED_MAXITER || iterations == FractalCalculator.IN_SET) {
-			return Color.BLACK.getRGB();
+			return FractalPalette.IN_SET_RGB;
 		}
 		
 		// log-scale n for better contrast when zoomed in, and normalize to gradient length
 		iterations = logScalingA*Math.log(logScalingB*(iterations + logScalingC))/gradientRGB.length;
 		
 		// interpolate colour between gradient values
-		while(iterations < 0) {
-			iterations += gradientRGB.length;			// bring n above zero to get positive modulo
+		double floor = Math.floor(iterations);
+		int n1 = (int)(floor % gradientRGB.length);			// gradient index below n
+		if(n1 < 0) {
+			n1 += gradientRGB.length;						// positive modulo
 		}
-		int n1 = ((int)iterations) % gradientRGB.length;	// gradient index below n
-		int n2 = ((int)iterations + 1) % gradientRGB.length;	// gradient index above n
-		double w = iterations % 1;								// where n is between n1 and n2 (0 if n = n1, 1 if n = n2, linear between)
+		int n2 = (n1 + 1) % gradientRGB.length;				// gradient index above n
+		double w = iterations - floor;						// where n is between n1 and n2 (0 if n = n1, 1 if n = n2, linear between)
 		
-		int[] rgb = new int[3];						// interpolated {red, green, blue}
+		// pack the interpolated {red, green, blue} into an opaque RGB code
+		int rgb = FractalPalette.IN_SET_RGB;
 		for(int i=0; i<3; i++) {
-			rgb[i] = (int)((1 - w)*gradientRGB[n1][i] + w*gradientRGB[n2][i]);
+			rgb |= (int)((1 - w)*gradientRGB[n1][i] + w*gradientRGB[n2][i]) << (16 - 8*i);
+		}
+		return rgb;
+	}
+	
+	// print iteration statistics of a job
+	void reportCounts(RenderJob job) {
+		long[] calculationCounts = job.counts;
+		long iterations = calculationCounts[FractalCalculator.COUNT_ITERATIONS];
+		long saved = calculationCounts[FractalCalculator.COUNT_SAVED];
+		System.out.println(String.format("%s iterations; periodicity checking found %s periodic points and saved %s iterations (%.1f%%)",
+				iterations, calculationCounts[FractalCalculator.COUNT_PERIODIC], saved, 100.0*saved/Math.max(1, iterations + saved)));
+		long resumed = calculationCounts[FractalCalculator.COUNT_RESUMED];
+		if(resumed > 0) {
+			System.out.println(String.format("Resumed %s samples from a lower maxIter, skipping %s iterations", resumed,
+					calculationCounts[FractalCalculator.COUNT_RESUMED_ITERATIONS]));
+		}
+		FractalCalculator calculator = job.calculator;
+		if(calculator.solver == FractalScheduler.SOLVER_MARIANI_SILVER) {
+			long filled = calculationCounts[FractalCalculator.COUNT_FILLED];
+			System.out.println(String.format("%s solver %s %s samples (%.1f%%)%s", FractalScheduler.SOLVER_NAMES[calculator.solver],
+					calculator.verifyFills ? "verified" : "filled", filled, 100.0*filled/job.view.getSampleCount(),
+					calculator.verifyFills ? String.format(", of which %s escaped", calculationCounts[FractalCalculator.COUNT_FILL_ERRORS]) : ""));
 		}
-		
-		// create a Color object of the desired RGB values and return its RGB code
-		return new Color(rgb[0], rgb[1], rgb[2]).getRGB();
 	}
 	
 	// update GUI to reflect calculation progress
 	void reportProgress() {
-		gui.progressBar.setValue(progressCounter[0]);
+		gui.progressBar.setValue(job.progress.intValue());
 	}
 }
\ No newline at end of file
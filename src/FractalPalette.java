@@ -0,0 +1,230 @@
+import java.util.function.IntConsumer;
+
+/* class FractalPalette:
+ * - converts floating-point fractal values into packed RGB colours without allocating objects
+ *     - an immutable lookup table of STEPS_PER_COLOUR interpolated colours per step of a cyclic gradient is built once
+ *     - fractal values are mapped to a position along the gradient, which indexes the table
+ *         - COLOURING_LOG: log-scaled (n -> A*log(B*(n + C))), so the colours cycle at a fixed rate
+ *         - COLOURING_HISTOGRAM: the fraction of escaped pixels of the frame with lower values, so the gradient is spread evenly
+ *           over the pixels of the frame (see equalise())
+ *         - the cycle offset shifts every position along the gradient
+ *     - points that didn't escape (REACHED_MAXITER or IN_SET) are black
+ * - is immutable, so the colouring of a frame is changed by replacing its palette with a modified copy (see the with...() methods),
+ *   and recolouring never needs the calculation
+ * - measures how far apart two values are coloured (see getColourDifference), e.g. for adaptive antialiasing (see
+ *   FractalScheduler.calculateAdaptive), without needing the GUI
+ * - colours rows of a fractal array straight into an image's pixel array
+ *     - pixels with several samples are coloured by their median (see FractalCalculator.getPixelValue)
+ *     - rows are independent, so an image can be coloured by several threads at once (see FractalScheduler.forEachRow)
+ */
+
+public class FractalPalette {
+
+	// colouring modes
+	static final int COLOURING_LOG = 0;
+	static final int COLOURING_HISTOGRAM = 1;
+	static final String[] COLOURING_NAMES = {"log", "histogram"};
+
+	static int STEPS_PER_COLOUR = 256;	// table entries between consecutive gradient colours
+	static int IN_SET_RGB = 0xFF000000;	// colour of points that didn't escape (black)
+	static int HISTOGRAM_BINS = 4096;	// bins of the histogram of a frame, evenly spaced in log(n + C) up to log(maxIter + C)
+	static int HISTOGRAM_BAND = 16;		// rows counted into each partial histogram by equalise()
+
+	// colour scheme
+	final int[][] gradient;						// cyclic colour gradient (RGB)
+	final double logScalingA, logScalingB, logScalingC;	// log-scaling parameters (n -> A*log(B*(n + C)))
+	final double cycleOffset;					// shift of every colour along the gradient (gradient steps)
+	final int colouring;						// mapping from values to the gradient (one of the COLOURING_ constants)
+
+	// lookup table, and the map from fractal values to table positions (n -> logScale*log(n + C) + logOffset)
+	final int[] table;			// packed RGB colour at each position along the gradient
+	final double logScale;
+	final double logOffset;
+
+	// histogram equalisation of a frame (null/unused until equalised)
+	final double[] cdf;			// fraction of the frame's escaped pixels below each bin boundary (HISTOGRAM_BINS + 1 entries)
+	final double binLogMin;		// log(n + C) at the lower boundary of bin 0
+	final double binsPerLog;	// bins per unit of log(n + C)
+
+	// constructor: assign the colour scheme, with log scaling and no cycle offset
+	FractalPalette(int[][] gradient, double logScalingA, double logScalingB, double logScalingC) {
+		this(gradient, logScalingA, logScalingB, logScalingC, 0, COLOURING_LOG);
+	}
+
+	// constructor: assign the colour scheme, and build the lookup table from it
+	FractalPalette(int[][] gradient, double logScalingA, double logScalingB, double logScalingC, double cycleOffset, int colouring) {
+		if(gradient.length < 1 || colouring < 0 || colouring >= COLOURING_NAMES.length) {
+			throw new IllegalArgumentException("Illegal arguments passed to FractalPalette constructor: empty gradient or unknown colouring");
+		}
+		this.gradient = gradient;
+		this.logScalingA = logScalingA;
+		this.logScalingB = logScalingB;
+		this.logScalingC = logScalingC;
+		this.cycleOffset = cycleOffset;
+		this.colouring = colouring;
+
+		// interpolate linearly between consecutive gradient colours, truncating each channel
+		table = new int[gradient.length*STEPS_PER_COLOUR];
+		for(int s = 0; s < table.length; s++) {
+			int n1 = s/STEPS_PER_COLOUR;				// gradient index below the position
+			int n2 = (n1 + 1)%gradient.length;			// gradient index above the position
+			double w = (double)(s%STEPS_PER_COLOUR)/STEPS_PER_COLOUR;	// where the position is between n1 and n2
+			int rgb = IN_SET_RGB;
+			for(int c = 0; c < 3; c++) {
+				rgb |= (int)((1 - w)*gradient[n1][c] + w*gradient[n2][c]) << (16 - 8*c);
+			}
+			table[s] = rgb;
+		}
+
+		// fold the gradient length, table resolution, B, and the cycle offset into the map, so each value costs one logarithm
+		logScale = logScalingA*STEPS_PER_COLOUR/gradient.length;
+		logOffset = logScale*Math.log(logScalingB) + cycleOffset*STEPS_PER_COLOUR;
+
+		cdf = null;
+		binLogMin = 0;
+		binsPerLog = 0;
+	}
+
+	// constructor: copy a palette, adding the histogram equalisation of a frame
+	FractalPalette(FractalPalette palette, double[] cdf, double binLogMin, double binsPerLog) {
+		gradient = palette.gradient;
+		logScalingA = palette.logScalingA;
+		logScalingB = palette.logScalingB;
+		logScalingC = palette.logScalingC;
+		cycleOffset = palette.cycleOffset;
+		colouring = palette.colouring;
+		table = palette.table;
+		logScale = palette.logScale;
+		logOffset = palette.logOffset;
+		this.cdf = cdf;
+		this.binLogMin = binLogMin;
+		this.binsPerLog = binsPerLog;
+	}
+
+	// copy of this palette with another gradient
+	FractalPalette withGradient(int[][] gradient) {
+		return new FractalPalette(gradient, logScalingA, logScalingB, logScalingC, cycleOffset, colouring);
+	}
+
+	// copy of this palette with other log-scaling parameters
+	FractalPalette withLogScaling(double logScalingA, double logScalingB, double logScalingC) {
+		return new FractalPalette(gradient, logScalingA, logScalingB, logScalingC, cycleOffset, colouring);
+	}
+
+	// copy of this palette with another cycle offset (gradient steps)
+	FractalPalette withCycleOffset(double cycleOffset) {
+		return new FractalPalette(gradient, logScalingA, logScalingB, logScalingC, cycleOffset, colouring);
+	}
+
+	// copy of this palette with another colouring mode
+	FractalPalette withColouring(int colouring) {
+		return new FractalPalette(gradient, logScalingA, logScalingB, logScalingC, cycleOffset, colouring);
+	}
+
+	// palette to colour a frame with: for histogram colouring, a copy with the cumulative histogram of the frame's pixel values,
+	// counted in parallel bands of rows; otherwise this palette
+	FractalPalette equalise(final FractalView view, final double[] fractal, FractalScheduler scheduler) {
+		if(colouring != COLOURING_HISTOGRAM) {
+			return this;
+		}
+		final double logMin = Math.log(logScalingC);
+		final double perLog = HISTOGRAM_BINS/(Math.log(view.maxIter + logScalingC) - logMin);
+		final long[] histogram = new long[HISTOGRAM_BINS];
+		scheduler.forEachRow((view.heightPixels + HISTOGRAM_BAND - 1)/HISTOGRAM_BAND, new IntConsumer() {
+			public void accept(int band) {
+				int[] bandHistogram = new int[HISTOGRAM_BINS];
+				double[] scratch = new double[view.samplesPerPixel];
+				for(int j = band*HISTOGRAM_BAND; j < Math.min((band + 1)*HISTOGRAM_BAND, view.heightPixels); j++) {
+					for(int i = 0; i < view.widthPixels; i++) {
+						double value = FractalCalculator.getPixelValue(view, fractal, i, j, scratch);
+						if(value != FractalCalculator.NOT_CALCULATED && value != FractalCalculator.REACHED_MAXITER
+								&& value != FractalCalculator.IN_SET) {
+							bandHistogram[getBin(value, logMin, perLog)]++;
+						}
+					}
+				}
+				synchronized(histogram) {
+					for(int b = 0; b < HISTOGRAM_BINS; b++) {
+						histogram[b] += bandHistogram[b];
+					}
+				}
+			}
+		});
+
+		// cumulative fractions
+		long total = 0;
+		for(long count : histogram) {
+			total += count;
+		}
+		double[] cdf = new double[HISTOGRAM_BINS + 1];
+		long below = 0;
+		for(int b = 0; b < HISTOGRAM_BINS; b++) {
+			below += histogram[b];
+			cdf[b + 1] = (double)below/Math.max(1, total);
+		}
+		return new FractalPalette(this, cdf, logMin, perLog);
+	}
+
+	// histogram bin of an escaped value
+	int getBin(double iterations, double logMin, double perLog) {
+		return Math.max(0, Math.min(HISTOGRAM_BINS - 1, (int)((Math.log(iterations + logScalingC) - logMin)*perLog)));
+	}
+
+	// convert a fractal value to a packed RGB colour
+	int getRGB(double iterations) {
+		// return black if point didn't escape
+		if(iterations == FractalCalculator.REACHED_MAXITER || iterations == FractalCalculator.IN_SET) {
+			return IN_SET_RGB;
+		}
+		double position;	// position in the table
+		if(cdf == null) {
+			position = logScale*Math.log(iterations + logScalingC) + logOffset;
+		}
+		else {
+			// interpolate the cumulative fraction within the value's bin, and spread it over one cycle of the gradient
+			double u = (Math.log(iterations + logScalingC) - binLogMin)*binsPerLog;
+			int bin = Math.max(0, Math.min(HISTOGRAM_BINS - 1, (int)u));
+			double w = Math.max(0, Math.min(1, u - bin));
+			position = ((1 - w)*cdf[bin] + w*cdf[bin + 1])*table.length + cycleOffset*STEPS_PER_COLOUR;
+		}
+		int s = (int)Math.floor(position)%table.length;
+		return table[s < 0 ? s + table.length : s];	// positive modulo, for positions below zero
+	}
+
+	// difference between the colours of two calculated fractal values under log scaling, in gradient steps (ignoring the gradient's
+	// cycling, the cycle offset, and histogram equalisation); infinite if only one of them escaped
+	double getColourDifference(double iterations1, double iterations2) {
+		if(iterations1 < 0 || iterations2 < 0) {
+			return (iterations1 < 0) == (iterations2 < 0) ? 0 : Double.POSITIVE_INFINITY;
+		}
+		return logScalingA*Math.abs(Math.log((iterations1 + logScalingC)/(iterations2 + logScalingC)))/gradient.length;
+	}
+
+	// colour row j of an image from a fractal array, writing packed RGB colours to pixels[offset, offset + view.widthPixels)
+	// scratch must hold at least view.samplesPerPixel values
+	void colourRow(FractalView view, double[] fractal, int j, int[] pixels, int offset, double[] scratch) {
+		if(view.samplesPerPixel == 1) {
+			int index = view.getSampleIndex(0, j, 0);
+			for(int i = 0; i < view.widthPixels; i++) {
+				pixels[offset + i] = getRGB(fractal[index + i]);
+			}
+		}
+		else {
+			for(int i = 0; i < view.widthPixels; i++) {
+				pixels[offset + i] = getRGB(FractalCalculator.getPixelValue(view, fractal, i, j, scratch));
+			}
+		}
+	}
+
+	// colour row j of an image from the first sample of each pixel on the grid of a progressive pass (each pixel takes the colour of
+	// the grid pixel at or above and to the left of it), writing packed RGB colours to pixels[offset, offset + view.widthPixels)
+	void colourPreviewRow(FractalView view, double[] fractal, int j, int stride, int[] pixels, int offset) {
+		int gridJ = j - j%stride;
+		for(int i = 0; i < view.widthPixels; i += stride) {
+			int rgb = getRGB(fractal[view.getSampleIndex(i, gridJ, 0)]);
+			for(int di = 0; di < stride && i + di < view.widthPixels; di++) {
+				pixels[offset + i + di] = rgb;
+			}
+		}
+	}
+}
@@ -0,0 +1,479 @@
+import java.awt.geom.Point2D;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/* class FractalRenderer:
+ * - renders fractal images without a GUI, including images far too large to hold in memory
+ *     - main() reads view parameters from the command line, and writes a PNG image or a raw file of fractal values
+ *     - the image is calculated in tiles, each described by a sub-view of the whole image's FractalView (see FractalView.getSubView)
+ *         - with perturbation, every tile shares the whole image's reference orbit
+ *         - with adaptive antialiasing, each tile is calculated with a border of one pixel, so pixels at its edges are compared with
+ *           the same neighbours as they would be in one calculation of the whole image
+ *         - tiles are calculated one band of rows at a time, and each finished band is coloured and streamed to the file, so memory
+ *           use is bounded by TILE_SIZE and BAND_BYTES, however large the image is
+ *     - view parameters are stored in the file, as PNG tEXt chunks or in the raw file's header
+ *     - optionally, pixel values are also kept in a memory-mapped PixelStore, so an interrupted render can be run again with the same
+ *       options to resume it: tiles the store has flagged as done are read back instead of calculated
+ *     - optionally, tiles are calculated by TileWorker processes (on this or other machines) instead, each band's tiles being handed out
+ *       by a TileCoordinator; tiles that no worker could calculate are calculated here
+ *     - the render's metrics are published through JMX and JFR while it runs, and summarised at the end (see RenderMetrics)
+ * - raw files consist of:
+ *     - a text header in UTF-8: the line "FRACTALRAW", one line "key=value" per view parameter, then an empty line
+ *     - the value of each pixel (see FractalCalculator.getPixelValue) as a big-endian double, row by row
+ */
+
+public class FractalRenderer {
+
+	// output formats
+	static final int FORMAT_PNG = 0;
+	static final int FORMAT_RAW = 1;
+
+	// tiling
+	static int TILE_SIZE = 256;			// largest width and height of a tile (pixels)
+	static long BAND_BYTES = 64 << 20;	// largest size of the output buffered for a band of tiles (bytes); shortens bands of wide images
+
+	// view parameters, with defaults matching FractalLabel
+	BigDecimal centerX = new BigDecimal("-0.69420");
+	BigDecimal centerY = BigDecimal.ZERO;
+	double width = 5;
+	double rotation = 0;				// (rad)
+	int widthPixels = 1920;
+	int heightPixels = 1080;
+	int maxIter = 256;
+	boolean autoMaxIter = false;		// whether to estimate maxIter for the view before rendering (see MaxIterEstimator)
+	double escapeRadius = 420.69;
+	int antialiasingType = FractalLabel.ANTIALIAS_ADAPTIVE;
+	int antialiasingFactor = 4;
+	boolean usePerturbation = true;
+	boolean usePeriodicityChecking = true;
+	boolean useFloat = false;			// whether to allow float precision for shallow views
+	int solver = FractalScheduler.SOLVER_BRUTE_FORCE;	// solver of each tile's calculation (per renderer, since a TileWorker's sessions share a scheduler)
+
+	// calculation and output
+	FractalScheduler scheduler;
+	String outputPath = "fractal.png";
+	int format = FORMAT_PNG;
+	String storePath = null;			// if not null, file of the PixelStore to keep pixel values in and resume from
+	String[] workerAddresses = null;	// if not null, host:port of each TileWorker to calculate tiles on
+
+	// constructor: calculate on a pool of its own
+	FractalRenderer() {
+		this(new FractalScheduler());
+	}
+
+	// constructor: calculate on a given pool (e.g. one shared by the sessions of a TileWorker)
+	FractalRenderer(FractalScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	// render from the command line
+	public static void main(String[] args) {
+		FractalRenderer renderer = new FractalRenderer();
+		try {
+			renderer.parseArguments(args);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(getUsage());
+			System.exit(1);
+		}
+		renderer.scheduler.metrics.register("renderer");
+		try {
+			renderer.render();
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());	// (e.g. a store made for a different render)
+			System.exit(1);
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	// describe the command-line arguments
+	static String getUsage() {
+		return String.join(System.lineSeparator(),
+				"Usage: java FractalRenderer [options]",
+				"  --center-x X, --center-y Y   center of view (any number of digits)",
+				"  --width W                    width of view",
+				"  --rotation DEGREES           CCW camera rotation",
+				"  --size WIDTHxHEIGHT          image size (pixels)",
+				"  --max-iter N                 maximum iterations, or auto to estimate them from a probe of the view",
+				"  --escape-radius R            escape radius",
+				"  --antialiasing TYPE          none, random, or adaptive",
+				"  --samples N                  antialiasing samples per pixel (2 to 256)",
+				"  --solver NAME                brute-force (default), or mariani-silver to fill tiles bounded by the set (inexact)",
+				"  --threads N                  number of calculation threads",
+				"  --no-perturbation            use double-double/BigDecimal instead of perturbation for deep views",
+				"  --no-periodicity             disable periodicity checking",
+				"  --float                      allow float precision for shallow views (less accurate, and no faster than double)",
+				"  --output FILE                output file, PNG or (if FILE ends in .raw) raw fractal values",
+				"  --store FILE                 keep pixel values in FILE, and resume from it if it exists (run again to resume)",
+				"  --workers HOST:PORT,...      calculate tiles on TileWorker processes (list an address twice to keep two tiles in flight)");
+	}
+
+	// set parameters from command-line arguments
+	void parseArguments(String[] args) {
+		for(int n = 0; n < args.length; n++) {
+			String option = args[n];
+			if(option.equals("--no-perturbation")) {
+				usePerturbation = false;
+				continue;
+			}
+			if(option.equals("--no-periodicity")) {
+				usePeriodicityChecking = false;
+				continue;
+			}
+			if(option.equals("--float")) {
+				useFloat = true;
+				continue;
+			}
+			if(n + 1 >= args.length) {
+				throw new IllegalArgumentException(String.format("Illegal argument passed to FractalRenderer: %s needs a value", option));
+			}
+			String value = args[++n];
+			try {
+				switch(option) {
+					case "--center-x":
+						centerX = new BigDecimal(value);
+						break;
+					case "--center-y":
+						centerY = new BigDecimal(value);
+						break;
+					case "--width":
+						width = Double.parseDouble(value);
+						break;
+					case "--rotation":
+						rotation = Math.toRadians(Double.parseDouble(value));
+						break;
+					case "--size":
+						String[] size = value.split("x");
+						if(size.length != 2) {
+							throw new IllegalArgumentException("Illegal argument passed to FractalRenderer: --size must be WIDTHxHEIGHT");
+						}
+						widthPixels = Integer.parseInt(size[0]);
+						heightPixels = Integer.parseInt(size[1]);
+						break;
+					case "--max-iter":
+						autoMaxIter = value.equals("auto");
+						if(!autoMaxIter) {
+							maxIter = Integer.parseInt(value);
+						}
+						break;
+					case "--escape-radius":
+						escapeRadius = Double.parseDouble(value);
+						break;
+					case "--antialiasing":
+						antialiasingType = parseName(option, value, new String[] {"none", "random", "adaptive"});
+						break;
+					case "--samples":
+						antialiasingFactor = Integer.parseInt(value);
+						break;
+					case "--solver":
+						solver = parseName(option, value, new String[] {"brute-force", "mariani-silver"});
+						break;
+					case "--threads":
+						scheduler.setThreadCount(Integer.parseInt(value));
+						break;
+					case "--output":
+						outputPath = value;
+						format = value.toLowerCase().endsWith(".raw") ? FORMAT_RAW : FORMAT_PNG;
+						break;
+					case "--store":
+						storePath = value;
+						break;
+					case "--workers":
+						workerAddresses = value.split(",");
+						break;
+					default:
+						throw new IllegalArgumentException(String.format("Illegal argument passed to FractalRenderer: unknown option %s", option));
+				}
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException(String.format("Illegal argument passed to FractalRenderer: %s %s is not a number", option, value));
+			}
+		}
+		checkParameters();
+	}
+
+	// throw an IllegalArgumentException if the parameters are out of range
+	void checkParameters() {
+		if(width <= 0 || widthPixels < 1 || heightPixels < 1 || maxIter < 1 || escapeRadius < 2) {
+			throw new IllegalArgumentException("Illegal argument passed to FractalRenderer: width, size, max-iter, or escape-radius out of range");
+		}
+		if(antialiasingType != FractalLabel.ANTIALIAS_NONE && (antialiasingFactor < 2 || antialiasingFactor > SamplePattern.MAX_SAMPLES)) {
+			throw new IllegalArgumentException(String.format("Illegal argument passed to FractalRenderer: samples must be between 2 and %s",
+					SamplePattern.MAX_SAMPLES));
+		}
+		if(antialiasingType < 0 || antialiasingType > FractalLabel.ANTIALIAS_ADAPTIVE || solver < 0
+				|| solver >= FractalScheduler.SOLVER_NAMES.length) {
+			throw new IllegalArgumentException("Illegal argument passed to FractalRenderer: unknown antialiasing type or solver");
+		}
+	}
+
+	// index of a value in a list of names
+	static int parseName(String option, String value, String[] names) {
+		int index = Arrays.asList(names).indexOf(value);
+		if(index < 0) {
+			throw new IllegalArgumentException(String.format("Illegal argument passed to FractalRenderer: %s must be one of %s",
+					option, String.join(", ", names)));
+		}
+		return index;
+	}
+
+	// describe the whole image
+	FractalView createView() {
+		Point2D.Double[] sampleOffsets = null;
+		if(antialiasingType != FractalLabel.ANTIALIAS_NONE) {
+			sampleOffsets = SamplePattern.getOffsets(antialiasingFactor);
+		}
+		return new FractalView(centerX, centerY, width, rotation, widthPixels, heightPixels, sampleOffsets,
+				maxIter, escapeRadius, usePerturbation, usePeriodicityChecking, useFloat);
+	}
+
+	// send the parameters that determine the value of each pixel to a TileWorker, exactly (see readParameters)
+	void writeParameters(DataOutputStream out) throws IOException {
+		out.writeUTF(centerX.toString());
+		out.writeUTF(centerY.toString());
+		out.writeDouble(width);
+		out.writeDouble(rotation);
+		out.writeInt(widthPixels);
+		out.writeInt(heightPixels);
+		out.writeInt(maxIter);
+		out.writeDouble(escapeRadius);
+		out.writeInt(antialiasingType);
+		out.writeInt(antialiasingFactor);
+		out.writeBoolean(usePerturbation);
+		out.writeBoolean(usePeriodicityChecking);
+		out.writeBoolean(useFloat);
+		out.writeInt(solver);
+	}
+
+	// receive the parameters sent by writeParameters
+	void readParameters(DataInputStream in) throws IOException {
+		centerX = new BigDecimal(in.readUTF());
+		centerY = new BigDecimal(in.readUTF());
+		width = in.readDouble();
+		rotation = in.readDouble();
+		widthPixels = in.readInt();
+		heightPixels = in.readInt();
+		maxIter = in.readInt();
+		escapeRadius = in.readDouble();
+		antialiasingType = in.readInt();
+		antialiasingFactor = in.readInt();
+		usePerturbation = in.readBoolean();
+		usePeriodicityChecking = in.readBoolean();
+		useFloat = in.readBoolean();
+		solver = in.readInt();
+		checkParameters();
+	}
+
+	// view parameters to store in the output file
+	Map<String, String> getMetadata(FractalView view) {
+		Map<String, String> metadata = new LinkedHashMap<String, String>();
+		metadata.put("Software", "fractal FractalRenderer");
+		metadata.put("fractal.centerX", centerX.toString());
+		metadata.put("fractal.centerY", centerY.toString());
+		metadata.put("fractal.width", Double.toString(width));
+		metadata.put("fractal.rotation", Double.toString(Math.toDegrees(rotation)));
+		metadata.put("fractal.widthPixels", Integer.toString(widthPixels));
+		metadata.put("fractal.heightPixels", Integer.toString(heightPixels));
+		metadata.put("fractal.maxIter", Integer.toString(maxIter));
+		metadata.put("fractal.escapeRadius", Double.toString(escapeRadius));
+		metadata.put("fractal.antialiasing", new String[] {"none", "random", "adaptive"}[antialiasingType]);
+		metadata.put("fractal.samplesPerPixel", Integer.toString(view.samplesPerPixel));
+		metadata.put("fractal.precision", FractalCalculator.PRECISION_NAMES[view.precision]);
+		metadata.put("fractal.periodicityChecking", Boolean.toString(usePeriodicityChecking));
+		return metadata;
+	}
+
+	// calculate the image band by band, writing each band to the output file as it's finished
+	void render() throws IOException {
+		long startTime = System.currentTimeMillis();
+		if(autoMaxIter) {
+			// (estimated once here, so workers are sent the same maxIter, and a render resumed from a store estimates the same one)
+			maxIter = MaxIterEstimator.estimate(createView(), scheduler, scheduler.generation);
+			System.out.println(String.format("Estimated maxIter %s in %.2f seconds", maxIter, 0.001*(System.currentTimeMillis() - startTime)));
+		}
+		FractalView view = createView();
+		RenderMetrics.RenderEvent render = scheduler.metrics.startRender(view);
+		System.out.println(String.format("Rendering %sx%s pixels, %s samples per pixel, %s precision, to %s", widthPixels, heightPixels,
+				view.samplesPerPixel, FractalCalculator.PRECISION_NAMES[view.precision], outputPath));
+
+		// open the store first, so a store made for a different render is refused before the output is overwritten
+		// (with a store, bands are sized for the store's values whatever the format, so the tile grid is the same when resuming, and
+		// with workers, for the values of a whole band, which arrive before any of the band is written)
+		Map<String, String> metadata = getMetadata(view);
+		int bytesPerPixel = format == FORMAT_PNG && storePath == null && workerAddresses == null ? 3 : 8;
+		int bandHeight = (int)Math.max(1, Math.min(TILE_SIZE, BAND_BYTES/((long)widthPixels*bytesPerPixel)));
+		PixelStore store = null;
+		if(storePath != null) {
+			store = new PixelStore(Paths.get(storePath), widthPixels, heightPixels, TILE_SIZE, bandHeight, metadata);
+			System.out.println(String.format("Keeping pixel values in %s; %s of %s tiles already done", storePath, store.countDone(), store.nTiles));
+		}
+
+		// connect to the workers
+		TileCoordinator coordinator = null;
+		if(workerAddresses != null) {
+			coordinator = new TileCoordinator(this, view, TILE_SIZE, workerAddresses);
+		}
+
+		// open the output
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(outputPath), 1 << 16);
+		PngStreamWriter png = null;
+		DataOutputStream raw = null;
+		if(format == FORMAT_PNG) {
+			png = new PngStreamWriter(out, widthPixels, heightPixels, metadata);
+		}
+		else {
+			raw = new DataOutputStream(out);
+			StringBuilder header = new StringBuilder("FRACTALRAW\n");
+			for(Map.Entry<String, String> entry : metadata.entrySet()) {
+				header.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+			}
+			header.append('\n');
+			raw.write(header.toString().getBytes(StandardCharsets.UTF_8));
+		}
+
+		// buffer for one band of output: RGB bytes or pixel values
+		byte[] bandRGB = format == FORMAT_PNG ? new byte[3*widthPixels*bandHeight] : null;
+		double[] bandValues = format == FORMAT_RAW ? new double[widthPixels*bandHeight] : null;
+		long[] counts = new long[FractalCalculator.N_COUNTS];
+		double[] scratch = new double[view.samplesPerPixel];	// samples of a pixel, for getPixelValue
+
+		for(int y0 = 0; y0 < heightPixels; y0 += bandHeight) {
+			int tileHeight = Math.min(bandHeight, heightPixels - y0);
+			MappedByteBuffer storeRows = store == null ? null : store.mapRows(y0, tileHeight);
+			DoubleBuffer storeValues = store == null ? null : storeRows.asDoubleBuffer();
+
+			// tiles of the band that the store has, and the pixel values of the others that the workers (if any) calculate
+			int nTiles = (widthPixels + TILE_SIZE - 1)/TILE_SIZE;
+			boolean[] stored = new boolean[nTiles];
+			double[][] tileValues = new double[nTiles][];
+			for(int t = 0; t < nTiles; t++) {
+				stored[t] = store != null && store.isDone(t*TILE_SIZE, y0);
+			}
+			if(coordinator != null) {
+				coordinator.calculateTiles(y0, tileHeight, stored, tileValues, counts);
+			}
+
+			// calculate the remaining tiles here, and store the pixels' colours or values (reading the store's tiles from it)
+			for(int t = 0; t < nTiles; t++) {
+				int x0 = t*TILE_SIZE;
+				int tileWidth = Math.min(TILE_SIZE, widthPixels - x0);
+				if(!stored[t] && tileValues[t] == null) {
+					tileValues[t] = calculateTileValues(view, x0, y0, tileWidth, tileHeight, counts, scratch);
+				}
+				for(int j = 0; j < tileHeight; j++) {
+					for(int i = 0; i < tileWidth; i++) {
+						int pixel = j*widthPixels + x0 + i;
+						double value;
+						if(stored[t]) {
+							value = storeValues.get(pixel);
+						}
+						else {
+							value = tileValues[t][j*tileWidth + i];
+							if(store != null) {
+								storeValues.put(pixel, value);
+							}
+						}
+						if(format == FORMAT_PNG) {
+							int rgb = FractalLabel.defaultPalette.getRGB(value);
+							bandRGB[3*pixel] = (byte)(rgb >> 16);
+							bandRGB[3*pixel + 1] = (byte)(rgb >> 8);
+							bandRGB[3*pixel + 2] = (byte)rgb;
+						}
+						else {
+							bandValues[pixel] = value;
+						}
+					}
+				}
+				if(store != null && !stored[t]) {
+					store.setDone(storeRows, x0, y0);
+				}
+				tileValues[t] = null;
+			}
+
+			// write the band
+			for(int j = 0; j < tileHeight; j++) {
+				if(format == FORMAT_PNG) {
+					png.writeRow(bandRGB, 3*j*widthPixels);
+				}
+				else {
+					for(int i = 0; i < widthPixels; i++) {
+						raw.writeDouble(bandValues[j*widthPixels + i]);
+					}
+				}
+			}
+			scheduler.metrics.firstImage(render);	// (the first band of the image is out)
+			System.out.println(String.format("Rows %s-%s of %s done (%.1f%%, %.1f seconds)", y0, y0 + tileHeight - 1, heightPixels,
+					100.0*(y0 + tileHeight)/heightPixels, 0.001*(System.currentTimeMillis() - startTime)));
+		}
+
+		if(format == FORMAT_PNG) {
+			png.close();
+		}
+		else {
+			raw.close();
+		}
+		if(store != null) {
+			store.close();
+		}
+		if(coordinator != null) {
+			coordinator.close();
+		}
+		scheduler.shutdown();
+		scheduler.metrics.endRender(render, false);
+		System.out.println(String.format("Done rendering (%s threads, %.2f seconds); %s iterations", scheduler.nThreads,
+				0.001*(System.currentTimeMillis() - startTime), counts[FractalCalculator.COUNT_ITERATIONS]));
+		System.out.println(scheduler.metrics.getReport());
+	}
+
+	// calculate the value of each pixel of the tile [x0, x0 + width) x [y0, y0 + height) of a view, row by row
+	// (with adaptive antialiasing, the tile's sub-view has a border of one pixel within the image, whose values are left out)
+	// scratch must hold at least view.samplesPerPixel values
+	double[] calculateTileValues(FractalView view, int x0, int y0, int width, int height, long[] counts, double[] scratch) {
+		int halo = antialiasingType == FractalLabel.ANTIALIAS_ADAPTIVE && view.samplesPerPixel > 1 ? 1 : 0;
+		int haloX0 = Math.max(0, x0 - halo);
+		int haloY0 = Math.max(0, y0 - halo);
+		int haloX1 = Math.min(view.widthPixels, x0 + width + halo);
+		int haloY1 = Math.min(view.heightPixels, y0 + height + halo);
+		FractalView tileView = view.getSubView(haloX0, haloY0, haloX1 - haloX0, haloY1 - haloY0);
+		double[] fractal = calculateTile(tileView, counts);
+		double[] values = new double[width*height];
+		for(int j = 0; j < height; j++) {
+			for(int i = 0; i < width; i++) {
+				values[j*width + i] = FractalCalculator.getPixelValue(tileView, fractal, x0 - haloX0 + i, y0 - haloY0 + j, scratch);
+			}
+		}
+		return values;
+	}
+
+	// calculate the fractal array of a tile
+	double[] calculateTile(FractalView tileView, long[] counts) {
+		double[] fractal = new double[tileView.getSampleCount()];
+		Arrays.fill(fractal, FractalCalculator.NOT_CALCULATED);
+		FractalCalculator calculator = new FractalCalculator(tileView, fractal, new LongAdder(), counts);
+		calculator.solver = solver;
+		int generation = scheduler.generation;
+		if(antialiasingType == FractalLabel.ANTIALIAS_ADAPTIVE && tileView.samplesPerPixel > 1) {
+			calculator.setPass(1, 1);
+			scheduler.calculate(calculator, generation);
+			scheduler.calculateAdaptive(calculator, generation, FractalLabel.defaultPalette, FractalLabel.ADAPTIVE_THRESHOLD, null);
+		}
+		else {
+			scheduler.calculate(calculator, generation);
+		}
+		return fractal;
+	}
+}
@@ -0,0 +1,292 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/* class FractalScheduler:
+ * - owns a long-lived ForkJoinPool that performs fractal calculations, so that no threads are created per calculation
+ *     - the number of threads is configurable; changing it replaces the pool
+ * - divides each calculation into 2D tiles of pixels
+ *     - tiles are split in half adaptively (lazy binary splitting): a tile is split while it's too large to be a single task, or while
+ *       other threads are short of work, so expensive regions (e.g. the set's interior) end up spread over idle threads by work-stealing
+ * - tile areas count only the pixels on the grid of the calculator's current pass, so coarse passes are split as finely as full ones
+ * - with the Mariani-Silver solver (opt-in; brute force is the default), each tile's border is calculated first, and if no border sample escaped, the interior is filled in
+ *   without calculating it (see FractalCalculator.getBorderFill); otherwise the tile is split and its halves are treated the same way
+ *     - the fill is exact up to filaments thinner than the sample spacing that cross the border; verifying fills calculates the interior
+ *       anyway (so the result is identical to brute force) and counts the samples a fill would have got wrong
+ * - in views symmetric about the real axis, tiles whose pixels are all copied from their mirror pixels are skipped, and the copies are
+ *   made once every tile is done (see FractalCalculator.isCopied)
+ * - calculateAdaptive() adds antialiasing samples in rounds, only to pixels whose colour hasn't converged
+ * - forEachRow() runs independent per-row work (e.g. colouring an image) on the same pool, in bands of rows
+ * - calculations can be cancelled without shutting down the pool or waiting for them; tiles that haven't started yet are skipped, and
+ *   tiles that have stop after their current sample (see FractalCalculator.isCancelled)
+ * - times each tile, and records it with the tile's calculation, which reports the count, mean, and maximum tile time of its last
+ *   calculate() (see FractalCalculator.getTileReport), so calculations running at the same time don't mix their timings
+ * - collects metrics of all its calculations (see RenderMetrics)
+ */
+
+public class FractalScheduler {
+
+	// tile sizes (in pixels)
+	static int MIN_TILE_AREA = 16*16;	// tiles are never split below this area
+	static int MAX_TILE_AREA = 64*64;	// tiles are always split above this area
+	static int SPLIT_SURPLUS = 2;		// tiles between MIN_TILE_AREA and MAX_TILE_AREA are split while this thread has at most this many queued tasks
+
+	// row bands
+	static int ROWS_PER_TASK = 16;		// bands of rows in forEachRow() are never split below this height
+
+	// solvers
+	static final int SOLVER_BRUTE_FORCE = 0;	// calculate every sample
+	static final int SOLVER_MARIANI_SILVER = 1;	// fill tiles whose border is in the set
+	static final String[] SOLVER_NAMES = {"brute force", "Mariani-Silver"};
+	// (each calculation chooses its solver, see FractalCalculator.solver, so calculations sharing the scheduler can use different ones)
+
+	// pool
+	ForkJoinPool pool;		// pool of low-priority threads that perform calculations
+	int nThreads;			// number of threads in the pool
+
+	// cancellation: each calculation remembers the generation it started in, and stops when the generation changes
+	volatile int generation;
+
+	// metrics of all calculations (the timing of each calculation's own tiles is kept by its FractalCalculator)
+	final RenderMetrics metrics = new RenderMetrics();
+
+	// constructor: create a pool with one thread per available processor
+	FractalScheduler() {
+		this(Runtime.getRuntime().availableProcessors()); // efficiency seems to increase with nThreads until nThreads = [CPU nThreads], and slowly decrease above that
+	}
+
+	// constructor: create a pool with the given number of threads
+	FractalScheduler(int nThreads) {
+		setThreadCount(nThreads);
+	}
+
+	// replace the pool with one of the given size, if the size has changed
+	synchronized void setThreadCount(int nThreads) {
+		if(nThreads < 1) {
+			throw new IllegalArgumentException("Illegal argument passed to FractalScheduler.setThreadCount: nThreads < 1");
+		}
+		if(pool != null && nThreads == this.nThreads) {
+			return;
+		}
+		if(pool != null) {
+			pool.shutdown();	// lets any running calculation finish on the old pool
+		}
+		this.nThreads = nThreads;
+		pool = new ForkJoinPool(nThreads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			public ForkJoinWorkerThread newThread(ForkJoinPool p) {
+				ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				t.setPriority(Thread.MIN_PRIORITY);// priority is 1-10
+				t.setDaemon(true);
+				return t;
+			}
+		}, null, false);
+	}
+
+	// calculate every pixel of the view that hasn't been calculated yet, and wait until finished (or cancelled)
+	// returns false if the calculation was cancelled
+	boolean calculate(FractalCalculator calculator) {
+		return calculate(calculator, generation);
+	}
+
+	// calculate as above, as part of work that started in the given generation (so it's skipped if cancelled since then)
+	boolean calculate(FractalCalculator calculator, int startGeneration) {
+		ForkJoinPool p;
+		synchronized(this) {
+			p = pool;
+		}
+		calculator.resetTileTimes();
+		calculator.scheduler = this;
+		calculator.generation = startGeneration;
+		p.invoke(new TileTask(calculator, startGeneration, 0, 0, calculator.view.widthPixels, calculator.view.heightPixels));
+		if(calculator.mirror && generation == startGeneration) {
+			final FractalCalculator c = calculator;
+			forEachRow(calculator.view.heightPixels, new IntConsumer() {
+				public void accept(int j) {
+					c.copyMirrored(j);
+				}
+			});
+		}
+		return generation == startGeneration;
+	}
+
+	// add antialiasing samples only to the pixels that need them, in rounds that double the samples of the pixels still needing them
+	// - a pixel needs samples if its first sample's colour differs from a neighbour's by more than threshold (in gradient steps of
+	//   palette, see FractalPalette.getColourDifference)
+	// - it stops needing them once a round changes its value (see FractalCalculator.getPixelValue) by at most threshold
+	// - before each round, roundListener (if not null) is given the number of samples the round will add
+	// returns false if the calculation was cancelled
+	boolean calculateAdaptive(FractalCalculator calculator, int startGeneration, FractalPalette palette, double threshold,
+			IntConsumer roundListener) {
+		FractalView view = calculator.view;
+		double[] fractal = calculator.fractal;
+		int widthPixels = view.widthPixels;
+		int heightPixels = view.heightPixels;
+		boolean[] refine = new boolean[widthPixels*heightPixels];	// pixels that need more samples
+		double[] estimate = new double[widthPixels*heightPixels];	// value of each pixel after the last round
+		int nRefine = 0;
+		for(int j = 0; j < heightPixels; j++) {
+			for(int i = 0; i < widthPixels; i++) {
+				double value = fractal[view.getSampleIndex(i, j, 0)];
+				for(int dj = -1; dj <= 1 && !refine[j*widthPixels + i]; dj++) {
+					for(int di = -1; di <= 1; di++) {
+						if(i + di >= 0 && i + di < widthPixels && j + dj >= 0 && j + dj < heightPixels
+								&& palette.getColourDifference(value, fractal[view.getSampleIndex(i + di, j + dj, 0)]) > threshold) {
+							refine[j*widthPixels + i] = true;
+							nRefine++;
+							break;
+						}
+					}
+				}
+				estimate[j*widthPixels + i] = FractalCalculator.getPixelValue(view, fractal, i, j);
+			}
+		}
+
+		for(int samples = 1; samples < view.samplesPerPixel && nRefine > 0; ) {
+			int nextSamples = Math.min(2*samples, view.samplesPerPixel);
+			if(roundListener != null) {
+				roundListener.accept(nRefine*(nextSamples - samples));
+			}
+			samples = nextSamples;
+			calculator.setPass(1, samples, refine);
+			if(!calculate(calculator, startGeneration)) {
+				return false;
+			}
+
+			// keep refining the pixels whose value hasn't converged
+			nRefine = 0;
+			for(int p = 0; p < refine.length; p++) {
+				if(refine[p]) {
+					double value = FractalCalculator.getPixelValue(view, fractal, p%widthPixels, p/widthPixels);
+					refine[p] = palette.getColourDifference(value, estimate[p]) > threshold;
+					estimate[p] = value;
+					if(refine[p]) {
+						nRefine++;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	// run rowAction on each row in [0, nRows) in parallel, and wait until finished
+	void forEachRow(int nRows, IntConsumer rowAction) {
+		ForkJoinPool p;
+		synchronized(this) {
+			p = pool;
+		}
+		p.invoke(new RowTask(rowAction, 0, nRows));
+	}
+
+	// cancel any calculation in progress; returns immediately, and the calculation stops within a sample of each running tile
+	void cancel() {
+		generation++;
+	}
+
+	// shut down the pool
+	void shutdown() {
+		cancel();
+		pool.shutdown();
+	}
+
+	/* class TileTask:
+	 * - calculates the rectangle [x0, x1) x [y0, y1) of pixels, splitting it into two tasks first if it's worth doing so
+	 */
+	class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = -2365184620542364958L;
+
+		FractalCalculator calculator;	// calculator shared by all tiles of the calculation
+		int startGeneration;			// generation when the calculation started
+		int x0, y0, x1, y1;				// rectangle of pixels
+
+		TileTask(FractalCalculator calculator, int startGeneration, int x0, int y0, int x1, int y1) {
+			this.calculator = calculator;
+			this.startGeneration = startGeneration;
+			this.x0 = x0;
+			this.y0 = y0;
+			this.x1 = x1;
+			this.y1 = y1;
+		}
+
+		protected void compute() {
+			// skip the tile if the calculation has been cancelled
+			if(generation != startGeneration) {
+				metrics.tilesCancelled.increment();
+				return;
+			}
+
+			// skip the tile if its pixels will be copied from their mirror pixels
+			if(calculator.isCopiedTile(x0, y0, x1, y1)) {
+				return;
+			}
+
+			// with the Mariani-Silver solver, fill the tile if its border is in the set, and otherwise always split it down to MIN_TILE_AREA
+			// (coarse and masked passes are calculated brute force, since their samples are too far apart to trust a fill)
+			int w = x1 - x0;
+			int h = y1 - y0;
+			int area = w*h/(calculator.passStride*calculator.passStride);
+			boolean marianiSilver = calculator.solver == SOLVER_MARIANI_SILVER && calculator.passStride == 1 && calculator.passPixels == null && w > 2 && h > 2;
+			boolean split = area > MAX_TILE_AREA || (area > MIN_TILE_AREA && (marianiSilver || getSurplusQueuedTaskCount() <= SPLIT_SURPLUS));
+			
+			// only leaf tiles (filled or calculated) are recorded as tiles; the border of a tile that's then split is recorded as border
+			// time, so it doesn't overlap the tiles its halves record (and a tile that's split without a border does no work)
+			RenderMetrics.TileEvent event = marianiSilver || !split ? metrics.startTile() : null;
+			if(marianiSilver) {
+				calculator.calculateBorder(x0, y0, x1, y1);
+				double fill = calculator.getBorderFill(x0, y0, x1, y1);
+				if(fill != FractalCalculator.NOT_CALCULATED) {
+					calculator.fillTile(x0 + 1, y0 + 1, x1 - 1, y1 - 1, fill, calculator.verifyFills);
+					calculator.recordTile(x0, y0, x1, y1, metrics.endTile(event, calculator, x0, y0, x1, y1, true));
+					return;
+				}
+				if(split) {
+					metrics.endBorder(event);
+				}
+			}
+
+			// split along the longer side, if the tile is too large or other threads could use the work
+			if(split) {
+				if(w >= h) {
+					int xm = x0 + w/2;
+					invokeAll(new TileTask(calculator, startGeneration, x0, y0, xm, y1), new TileTask(calculator, startGeneration, xm, y0, x1, y1));
+				}
+				else {
+					int ym = y0 + h/2;
+					invokeAll(new TileTask(calculator, startGeneration, x0, y0, x1, ym), new TileTask(calculator, startGeneration, x0, ym, x1, y1));
+				}
+				return;
+			}
+
+			// otherwise, calculate the tile (after its border, with the Mariani-Silver solver)
+			calculator.calculateTile(x0, y0, x1, y1);
+			calculator.recordTile(x0, y0, x1, y1, metrics.endTile(event, calculator, x0, y0, x1, y1, false));
+		}
+	}
+
+	/* class RowTask:
+	 * - runs a per-row action on the rows [y0, y1), splitting them into two tasks first if there are enough of them
+	 */
+	static class RowTask extends RecursiveAction {
+		private static final long serialVersionUID = 4718829310367528473L;
+
+		IntConsumer rowAction;	// action to run on each row
+		int y0, y1;				// range of rows
+
+		RowTask(IntConsumer rowAction, int y0, int y1) {
+			this.rowAction = rowAction;
+			this.y0 = y0;
+			this.y1 = y1;
+		}
+
+		protected void compute() {
+			if(y1 - y0 > ROWS_PER_TASK) {
+				int ym = y0 + (y1 - y0)/2;
+				invokeAll(new RowTask(rowAction, y0, ym), new RowTask(rowAction, ym, y1));
+				return;
+			}
+			for(int j = y0; j < y1; j++) {
+				rowAction.accept(j);
+			}
+		}
+	}
+}
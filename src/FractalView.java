@@ -0,0 +1,279 @@
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/* class FractalView:
+ * - contains an immutable description of one fractal calculation, so that the calculation doesn't depend on mutable GUI state
+ *     - framing: center, width, rotation, and pixel size
+ *     - sampling: number of samples per pixel and their sub-pixel offsets
+ *     - arithmetic: maximum iterations, escape radius, precision, and periodicity tolerance
+ * - describes the layout of the flat, row-major fractal array
+ *     - samples of a pixel are adjacent, so the array has (widthPixels*samplesPerPixel) columns and heightPixels rows
+ * - contains methods to generate the fractal-space coordinates of a sample without allocating objects
+ * - can describe a rectangle of its pixels as a view of its own, so large images can be calculated one tile at a time
+ *     - with perturbation, the sub-views share this view's reference orbit, and offset their samples from its reference point with this
+ *       view's image-to-fractal map, so the orbit is calculated once for the whole image instead of once per tile, and tiles calculate
+ *       the same offsets as the whole view would
+ * - can map the image space of another view into its own, so an image of one view can be redrawn as a preview of another
+ * - finds the conjugate symmetry of its pixels: if the reflection of image space that maps each point to its complex conjugate maps
+ *   pixels onto pixels (the real axis is on or halfway between rows or columns, at a rotation that's a multiple of 45 degrees), the
+ *   Mandelbrot set has the same value at each pixel and its mirror pixel (see getMirrorPixel)
+ *     - a mirror pixel's samples are at the reflection of its partner's sample pattern, which is exactly the view's own pattern only if
+ *       the pattern is symmetric (mirrorExact)
+ */
+
+public class FractalView {
+
+	// framing parameters in fractal space
+	final BigDecimal centerXPrecise;	// arbitrary-precision center coordinates
+	final BigDecimal centerYPrecise;
+	final double centerX;				// center coordinates rounded to double
+	final double centerY;
+	final double width;					// width of view
+	final double rotation;				// rotation angle (CCW camera rotation, or CW fractal rotation) (rad)
+
+	// pixel size of the view
+	final int widthPixels;
+	final int heightPixels;
+
+	// sampling
+	final int samplesPerPixel;			// number of samples calculated for each pixel
+	final double[] sampleOffsetX;		// offset of each sample from its pixel's position in image space (pixels)
+	final double[] sampleOffsetY;
+
+	// fractal math parameters
+	final int maxIter;					// maximum number of iterations to attempt
+	final double escapeRadius;			// radius from origin beyond which a point is considered to have escaped
+	final int precision;				// arithmetic to use (one of the FractalCalculator.PRECISION_ constants)
+	final double periodicityTolerance;	// distance at which an orbit counts as periodic (zero to disable periodicity checking)
+	final MathContext mathContext;		// precision needed to resolve the pixels, plus some guard digits
+	ReferenceOrbit referenceOrbit;		// reference orbit for perturbation (calculated when first needed, or shared by getSubView)
+
+	// affine map from image space to offsets from the center in fractal space (pixel (x, y) -> origin + x*stepX + y*stepY)
+	final double pixelSize;
+	final double originR, originI;
+	final double stepXR, stepXI;
+	final double stepYR, stepYI;
+
+	// conjugate symmetry: pixel (i, j) is at the conjugate of pixel (mirrorXX*i + mirrorXY*j + mirrorX0, mirrorXY*i + mirrorYY*j + mirrorY0)
+	static double MIRROR_TOLERANCE = 1e-6;	// distance from a pixel at which a reflected pixel counts as landing on it (pixels)
+	final boolean hasMirror;			// whether the reflection maps pixels onto pixels
+	final int mirrorXX, mirrorXY, mirrorYY;
+	final int mirrorX0, mirrorY0;
+	final boolean mirrorExact;			// whether the reflection also maps each sample offset onto itself
+
+	// map from image space to offsets from the reference orbit's point: pixel (x, y) -> referenceOrigin + (x + referenceX0)*stepX +
+	// (y + referenceY0)*stepY (the map of the view the orbit was calculated for, so it's this view's own unless set by getSubView)
+	double referenceOriginR, referenceOriginI;
+	int referenceX0, referenceY0;
+
+	// constructor: as below, never choosing float precision
+	FractalView(BigDecimal centerXPrecise, BigDecimal centerYPrecise, double width, double rotation, int widthPixels, int heightPixels,
+			Point2D.Double[] sampleOffsets, int maxIter, double escapeRadius, boolean usePerturbation, boolean usePeriodicityChecking) {
+		this(centerXPrecise, centerYPrecise, width, rotation, widthPixels, heightPixels, sampleOffsets, maxIter, escapeRadius, usePerturbation,
+				usePeriodicityChecking, false);
+	}
+
+	// constructor: assign framing, sampling, and math parameters, then derive the precision and image-to-fractal map
+	// sampleOffsets are in pixels, relative to the pixel's position; null means one sample exactly at each pixel's position
+	// useFloat allows float precision for views it can resolve (see FractalCalculator.selectPrecision)
+	FractalView(BigDecimal centerXPrecise, BigDecimal centerYPrecise, double width, double rotation, int widthPixels, int heightPixels,
+			Point2D.Double[] sampleOffsets, int maxIter, double escapeRadius, boolean usePerturbation, boolean usePeriodicityChecking,
+			boolean useFloat) {
+		this.centerXPrecise = centerXPrecise;
+		this.centerYPrecise = centerYPrecise;
+		centerX = centerXPrecise.doubleValue();
+		centerY = centerYPrecise.doubleValue();
+		this.width = width;
+		this.rotation = rotation;
+		this.widthPixels = widthPixels;
+		this.heightPixels = heightPixels;
+		this.maxIter = maxIter;
+		this.escapeRadius = escapeRadius;
+
+		// sampling pattern
+		if(sampleOffsets == null) {
+			samplesPerPixel = 1;
+			sampleOffsetX = new double[] {0};
+			sampleOffsetY = new double[] {0};
+		}
+		else {
+			samplesPerPixel = sampleOffsets.length;
+			sampleOffsetX = new double[samplesPerPixel];
+			sampleOffsetY = new double[samplesPerPixel];
+			for(int k = 0; k < samplesPerPixel; k++) {
+				sampleOffsetX[k] = sampleOffsets[k].x;
+				sampleOffsetY[k] = sampleOffsets[k].y;
+			}
+		}
+
+		// image-to-fractal map, matching FractalLabel.getFractalOffsetXY
+		pixelSize = width/widthPixels;
+		double cos = Math.cos(rotation);
+		double sin = Math.sin(rotation);
+		double dx0 = -(widthPixels/2)*pixelSize;	// offset of image point (0, 0) from the center, ignoring rotation
+		double dy0 = (heightPixels/2)*pixelSize;	// (the center is at a whole pixel, so zooming by 2 about it keeps pixels aligned)
+		originR = dx0*cos - dy0*sin;
+		originI = dx0*sin + dy0*cos;
+		stepXR = pixelSize*cos;
+		stepXI = pixelSize*sin;
+		stepYR = pixelSize*sin;					// image y points down, fractal y points up
+		stepYI = -pixelSize*cos;
+		referenceOriginR = originR;
+		referenceOriginI = originI;
+
+		// reflection of image space across the real axis: v -> M*v + t, with M = A^T*K*A/pixelSize^2 and t = A^T*(K - I)*(point of
+		// pixel (0, 0))/pixelSize^2, where A = [stepX stepY] and K = diag(1, -1) (A is orthogonal up to pixelSize, so A^T inverts it)
+		double p2 = pixelSize*pixelSize;
+		double im0 = centerY + originI;
+		double[] reflection = {(stepXR*stepXR - stepXI*stepXI)/p2, (stepXR*stepYR - stepXI*stepYI)/p2, (stepYR*stepYR - stepYI*stepYI)/p2,
+				-2*im0*stepXI/p2, -2*im0*stepYI/p2};
+		boolean aligned = Math.abs(reflection[3]) + Math.abs(reflection[4]) < 4*(widthPixels + heightPixels);	// (else it misses the view)
+		for(double entry : reflection) {
+			aligned &= Math.abs(entry - Math.rint(entry)) < MIRROR_TOLERANCE;
+		}
+		hasMirror = aligned;
+		mirrorXX = aligned ? (int)Math.rint(reflection[0]) : 0;
+		mirrorXY = aligned ? (int)Math.rint(reflection[1]) : 0;
+		mirrorYY = aligned ? (int)Math.rint(reflection[2]) : 0;
+		mirrorX0 = aligned ? (int)Math.rint(reflection[3]) : 0;
+		mirrorY0 = aligned ? (int)Math.rint(reflection[4]) : 0;
+		boolean exact = aligned;
+		for(int k = 0; k < samplesPerPixel && exact; k++) {
+			exact = Math.abs(mirrorXX*sampleOffsetX[k] + mirrorXY*sampleOffsetY[k] - sampleOffsetX[k]) < MIRROR_TOLERANCE
+					&& Math.abs(mirrorXY*sampleOffsetX[k] + mirrorYY*sampleOffsetY[k] - sampleOffsetY[k]) < MIRROR_TOLERANCE;
+		}
+		mirrorExact = exact;
+
+		// arithmetic
+		precision = FractalCalculator.selectPrecision(pixelSize, Math.hypot(centerX, centerY) + width, usePerturbation, useFloat);
+		periodicityTolerance = usePeriodicityChecking ? FractalCalculator.PERIODICITY_TOLERANCE*pixelSize : 0;
+		mathContext = new MathContext(20 + (int)Math.max(0, Math.ceil(-Math.log10(pixelSize))));
+	}
+
+	// number of columns in the fractal array
+	int getSamplesWidth() {
+		return widthPixels*samplesPerPixel;
+	}
+
+	// number of entries in the fractal array
+	int getSampleCount() {
+		return widthPixels*samplesPerPixel*heightPixels;
+	}
+
+	// index in the fractal array of sample k of pixel (i, j)
+	int getSampleIndex(int i, int j, int k) {
+		return (j*widthPixels + i)*samplesPerPixel + k;
+	}
+
+	// image-space x-coordinate of the sample at a column of the fractal array
+	double getSampleImageX(int column) {
+		return column/samplesPerPixel + sampleOffsetX[column%samplesPerPixel];
+	}
+
+	// image-space y-coordinate of the sample at a column and row of the fractal array
+	double getSampleImageY(int column, int row) {
+		return row + sampleOffsetY[column%samplesPerPixel];
+	}
+
+	// whether another view describes the same calculation: the same framing, sampling, and math parameters
+	boolean matches(FractalView other) {
+		return centerXPrecise.compareTo(other.centerXPrecise) == 0 && centerYPrecise.compareTo(other.centerYPrecise) == 0
+				&& width == other.width && rotation == other.rotation && widthPixels == other.widthPixels && heightPixels == other.heightPixels
+				&& Arrays.equals(sampleOffsetX, other.sampleOffsetX) && Arrays.equals(sampleOffsetY, other.sampleOffsetY)
+				&& maxIter == other.maxIter && escapeRadius == other.escapeRadius && precision == other.precision
+				&& periodicityTolerance == other.periodicityTolerance;
+	}
+
+	// index (j*widthPixels + i) of the pixel at the conjugate point of pixel (i, j), or -1 if there isn't one in the view
+	int getMirrorPixel(int i, int j) {
+		if(!hasMirror) {
+			return -1;
+		}
+		int mi = mirrorXX*i + mirrorXY*j + mirrorX0;
+		int mj = mirrorXY*i + mirrorYY*j + mirrorY0;
+		return mi < 0 || mi >= widthPixels || mj < 0 || mj >= heightPixels ? -1 : mj*widthPixels + mi;
+	}
+
+	// whether pixel (i, j) has a mirror pixel that comes before it, so it may have been copied from it rather than calculated
+	boolean isMirrorCopy(int i, int j) {
+		int mirror = getMirrorPixel(i, j);
+		return mirror >= 0 && mirror < j*widthPixels + i;
+	}
+
+	// real offset from the center of an image-space point
+	double getOffsetR(double x, double y) {
+		return originR + x*stepXR + y*stepYR;
+	}
+
+	// imaginary offset from the center of an image-space point
+	double getOffsetI(double x, double y) {
+		return originI + x*stepXI + y*stepYI;
+	}
+
+	// real offset from the reference orbit's point of a sample, given its column and row in the fractal array
+	// (summed in the same order as in the view the orbit belongs to, so a sub-view's samples get exactly the same offsets)
+	double getReferenceOffsetR(int column, int row) {
+		double x = column/samplesPerPixel + referenceX0 + sampleOffsetX[column%samplesPerPixel];
+		double y = row + referenceY0 + sampleOffsetY[column%samplesPerPixel];
+		return referenceOriginR + x*stepXR + y*stepYR;
+	}
+
+	// imaginary offset from the reference orbit's point of a sample, given its column and row in the fractal array
+	double getReferenceOffsetI(int column, int row) {
+		double x = column/samplesPerPixel + referenceX0 + sampleOffsetX[column%samplesPerPixel];
+		double y = row + referenceY0 + sampleOffsetY[column%samplesPerPixel];
+		return referenceOriginI + x*stepXI + y*stepYI;
+	}
+
+	// describe the rectangle of pixels [x0, x0 + widthPixels) x [y0, y0 + heightPixels) of this view as a view of its own
+	// (its samples are at the same points, up to rounding, and it uses the same sampling and math parameters)
+	FractalView getSubView(int x0, int y0, int widthPixels, int heightPixels) {
+		// offset from this view's center pixel to the sub-view's center pixel, which is a whole number of pixels
+		int dx = x0 + widthPixels/2 - this.widthPixels/2;
+		int dy = y0 + heightPixels/2 - this.heightPixels/2;
+		BigDecimal subCenterX = centerXPrecise.add(new BigDecimal(dx*stepXR + dy*stepYR), mathContext);
+		BigDecimal subCenterY = centerYPrecise.add(new BigDecimal(dx*stepXI + dy*stepYI), mathContext);
+		
+		Point2D.Double[] sampleOffsets = new Point2D.Double[samplesPerPixel];
+		for(int k = 0; k < samplesPerPixel; k++) {
+			sampleOffsets[k] = new Point2D.Double(sampleOffsetX[k], sampleOffsetY[k]);
+		}
+		FractalView subView = new FractalView(subCenterX, subCenterY, widthPixels*pixelSize, rotation, widthPixels, heightPixels, sampleOffsets,
+				maxIter, escapeRadius, precision == FractalCalculator.PRECISION_PERTURBATION, periodicityTolerance != 0,
+				precision == FractalCalculator.PRECISION_FLOAT);
+		
+		// share this view's reference orbit, instead of calculating one around the sub-view's center
+		if(subView.precision == FractalCalculator.PRECISION_PERTURBATION) {
+			subView.referenceOrbit = getReferenceOrbit();
+			subView.referenceOriginR = referenceOriginR;
+			subView.referenceOriginI = referenceOriginI;
+			subView.referenceX0 = referenceX0 + x0;
+			subView.referenceY0 = referenceY0 + y0;
+		}
+		return subView;
+	}
+	
+	// affine transform from the image space of another view to this view's image space (pixel (x, y) of the other view is drawn at
+	// this view's pixel transform(x, y)), from the exact difference between the centers
+	AffineTransform getImageTransform(FractalView from) {
+		// offset of from's pixel (0, 0) from this view's pixel (0, 0)
+		double dR = from.centerXPrecise.subtract(centerXPrecise).doubleValue() + from.originR - originR;
+		double dI = from.centerYPrecise.subtract(centerYPrecise).doubleValue() + from.originI - originI;
+		double p2 = pixelSize*pixelSize;	// steps are orthogonal with length pixelSize, so projecting onto them inverts the map
+		return new AffineTransform(
+				(from.stepXR*stepXR + from.stepXI*stepXI)/p2, (from.stepXR*stepYR + from.stepXI*stepYI)/p2,
+				(from.stepYR*stepXR + from.stepYI*stepXI)/p2, (from.stepYR*stepYR + from.stepYI*stepYI)/p2,
+				(dR*stepXR + dI*stepXI)/p2, (dR*stepYR + dI*stepYI)/p2);
+	}
+	
+	// get the reference orbit for perturbation, calculating it the first time it's needed
+	synchronized ReferenceOrbit getReferenceOrbit() {
+		if(referenceOrbit == null) {
+			referenceOrbit = new ReferenceOrbit(centerXPrecise, centerYPrecise, maxIter, escapeRadius, mathContext);
+		}
+		return referenceOrbit;
+	}
+}
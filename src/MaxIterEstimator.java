@@ -0,0 +1,122 @@
+/* class MaxIterEstimator:
+ * - chooses maxIter for a view automatically: the smallest power of two beyond which at most TOLERANCE of the view's samples would
+ *   still escape (and so be drawn as if they were in the set), without iterating the interior of the set any longer than that
+ *     - the tail of escapes beyond a maxIter is projected from the escape counts in the two octaves below it: near the boundary, the
+ *       number of samples escaping in each octave shrinks roughly geometrically, so the ratio between the octaves gives the rest of
+ *       the tail (never more than the samples still unresolved at maxIter, which includes interior samples that will never escape)
+ *     - estimate() calculates a sparse probe grid of the view (PROBE_WIDTH samples across) at doubling maxIter, resuming the probe's
+ *       unresolved samples each time (see OrbitStore), until the projected tail is within TOLERANCE
+ *     - countTail() and extrapolate() apply the same projection to the samples of a calculation in progress, so FractalLabel can
+ *       raise maxIter as each progressive pass shows more of the view
+ * - only powers of two are chosen (like the GUI's SpinnerBinaryIntModel), so calculations of nearby views share maxIter and can reuse
+ *   each other's samples (see SampleCache)
+ */
+
+public class MaxIterEstimator {
+
+	static double TOLERANCE = 1e-3;		// largest fraction of samples allowed to escape beyond maxIter
+	static int PROBE_WIDTH = 128;		// samples across the probe grid (rows are spaced the same)
+	static int MIN_MAX_ITER = 64;		// smallest maxIter chosen
+	static int MAX_MAX_ITER = 1 << 20;	// largest maxIter chosen
+	static int LOWER_OCTAVES = 2;		// octaves an estimate must be below the current maxIter to lower it (see adjust())
+
+	// indices of the values returned by countTail
+	static final int TAIL_SAMPLES = 0;		// samples counted
+	static final int TAIL_TOP = 1;			// samples that escaped in the top octave (maxIter/2, maxIter]
+	static final int TAIL_BELOW = 2;		// samples that escaped in the octave below it (maxIter/4, maxIter/2]
+	static final int TAIL_UNRESOLVED = 3;	// samples that reached maxIter
+	static final int TAIL_ESCAPED = 4;		// samples that escaped at all
+	static final int N_TAIL = 5;
+
+	// estimate maxIter for a view from a probe grid of it, calculated on a scheduler as part of work that started in the given
+	// generation; returns -1 if the calculation was cancelled
+	static int estimate(FractalView view, FractalScheduler scheduler, int generation) {
+		int probeWidth = Math.min(PROBE_WIDTH, view.widthPixels);
+		int probeHeight = Math.max(1, (int)Math.round((double)view.heightPixels*probeWidth/view.widthPixels));
+		boolean usePerturbation = view.precision == FractalCalculator.PRECISION_PERTURBATION;
+		boolean usePeriodicityChecking = view.periodicityTolerance != 0;
+
+		// calculate the probe at doubling maxIter, copying its escaped samples and resuming the rest each time, until the escapes
+		// beyond maxIter are projected to be within tolerance
+		RenderJob probe = null;
+		for(int maxIter = MIN_MAX_ITER; ; maxIter *= 2) {
+			FractalView probeView = new FractalView(view.centerXPrecise, view.centerYPrecise, view.width, view.rotation, probeWidth, probeHeight,
+					null, maxIter, view.escapeRadius, usePerturbation, usePeriodicityChecking, view.precision == FractalCalculator.PRECISION_FLOAT);
+			RenderJob next = new RenderJob(probeView, generation);
+			if(probe != null) {
+				probe.orbits.sort();
+				SampleCache.copySamples(probe.view, probe.fractal, probe.orbits, probeView, next.fractal, next.orbits, next.resume);
+			}
+			next.startResuming();
+			if(!scheduler.calculate(next.calculator, generation)) {
+				return -1;
+			}
+			probe = next;
+			if(maxIter >= MAX_MAX_ITER || extrapolate(maxIter, countTail(probeView, probe.fractal, 1)) == maxIter) {
+				return maxIter;
+			}
+		}
+	}
+
+	// count the escapes near a view's maxIter (see the TAIL_ constants) among the first samples of the pixels on the grid of every
+	// stride-th pixel, skipping samples that haven't been calculated
+	static long[] countTail(FractalView view, double[] fractal, int stride) {
+		long[] tail = new long[N_TAIL];
+		double top = view.maxIter/2.0;
+		double below = view.maxIter/4.0;
+		for(int j = 0; j < view.heightPixels; j += stride) {
+			for(int i = 0; i < view.widthPixels; i += stride) {
+				double value = fractal[view.getSampleIndex(i, j, 0)];
+				if(value == FractalCalculator.NOT_CALCULATED) {
+					continue;
+				}
+				tail[TAIL_SAMPLES]++;
+				if(value == FractalCalculator.REACHED_MAXITER) {
+					tail[TAIL_UNRESOLVED]++;
+				}
+				else if(value >= 0) {
+					tail[TAIL_ESCAPED]++;
+					if(value > top) {
+						tail[TAIL_TOP]++;
+					}
+					else if(value > below) {
+						tail[TAIL_BELOW]++;
+					}
+				}
+			}
+		}
+		return tail;
+	}
+
+	// smallest maxIter (a power of two from maxIter up to MAX_MAX_ITER) beyond which the escapes are projected to be within tolerance,
+	// from the tail counted at maxIter; if nothing escapes near maxIter, the unresolved samples are taken to be in the set, and if the
+	// escapes aren't shrinking yet, the tail can't be projected, and this returns the next power of two
+	static int extrapolate(int maxIter, long[] tail) {
+		double allowed = TOLERANCE*tail[TAIL_SAMPLES];
+		if(tail[TAIL_UNRESOLVED] <= allowed) {
+			return maxIter;
+		}
+		if(tail[TAIL_TOP] == 0) {
+			return maxIter;		// (nothing escapes near maxIter, or nothing escapes at all, so there is no tail to project from)
+		}
+		if(tail[TAIL_TOP] >= tail[TAIL_BELOW]) {
+			return Math.min(2*maxIter, MAX_MAX_ITER);
+		}
+		double ratio = (double)tail[TAIL_TOP]/tail[TAIL_BELOW];	// shrinking of the escapes per octave
+		double beyond = Math.min(tail[TAIL_UNRESOLVED], tail[TAIL_TOP]*ratio/(1 - ratio));
+		while(beyond > allowed && maxIter < MAX_MAX_ITER) {
+			maxIter *= 2;
+			beyond *= ratio;
+		}
+		return maxIter;
+	}
+
+	// maxIter to use for a new view given its estimate: raised to any higher estimate, but only lowered to an estimate at least
+	// LOWER_OCTAVES octaves lower, so views that differ a little keep the same maxIter (and keep reusing each other's samples)
+	static int adjust(int maxIter, int estimate) {
+		if(estimate > maxIter || estimate <= maxIter >> LOWER_OCTAVES) {
+			return estimate;
+		}
+		return maxIter;
+	}
+}
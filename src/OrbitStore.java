@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/* class OrbitStore:
+ * - keeps the last z_n of samples that reached maxIter without escaping, so their iteration can be resumed if maxIter is increased
+ *     - sparse: only those samples are stored, as entries (index in the fractal array, z_n, n), so the store is small wherever
+ *       periodicity checking or mandelTest decide the interior of the set
+ *     - entries are added by the tasks of a calculation in any order, then sorted by index once, and looked up by binary search
+ *     - each tile adds its entries to a store of its own, and merges it into the calculation's store once it's done (see addAll()),
+ *       so tiles don't contend for the shared store per sample
+ *     - the tiles of a cancelled calculation can still be merging entries after it's been superseded, so other calculations read a
+ *       store through a sorted snapshot of it (see snapshot())
+ *     - a store that's been filled for resuming is frozen (sorted, and never added to again), so the tiles can look it up without
+ *       locking
+ * - one store receives the samples of a calculation that reached maxIter (see FractalCalculator.orbits), and another provides the
+ *   samples a calculation resumes (see FractalCalculator.resume); SampleCache fills the second from the first of earlier calculations
+ */
+
+public class OrbitStore {
+
+	static int INITIAL_CAPACITY = 1024;
+
+	// entries (only the first size are used)
+	int size;
+	int[] indices;			// index of the sample in its fractal array
+	double[] re;			// z_n
+	double[] im;
+	int[] iterations;		// n
+	boolean sorted = true;								// whether the entries are sorted by index, without duplicates
+	boolean frozen;										// whether entries can no longer be added (see freeze())
+
+	// constructor: create an empty store
+	OrbitStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	// constructor: create an empty store with room for the given number of entries before it grows
+	OrbitStore(int capacity) {
+		indices = new int[capacity];
+		re = new double[capacity];
+		im = new double[capacity];
+		iterations = new int[capacity];
+	}
+
+	// add an entry (only by the store's owner: a tile's own store, or a store being filled before its calculation starts)
+	void add(int index, double r, double i, int n) {
+		if(frozen) {
+			throw new IllegalStateException("OrbitStore.add called on a frozen store");
+		}
+		if(size == indices.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, 2*size);
+			indices = Arrays.copyOf(indices, capacity);
+			re = Arrays.copyOf(re, capacity);
+			im = Arrays.copyOf(im, capacity);
+			iterations = Arrays.copyOf(iterations, capacity);
+		}
+		indices[size] = index;
+		re[size] = r;
+		im[size] = i;
+		iterations[size] = n;
+		size++;
+		sorted = false;
+	}
+
+	// add the entries of another store (e.g. a finished tile's), which may be shared by the tiles of a calculation
+	synchronized void addAll(OrbitStore other) {
+		for(int e = 0; e < other.size; e++) {
+			add(other.indices[e], other.re[e], other.im[e], other.iterations[e]);
+		}
+	}
+
+	// sort the entries, and allow no more to be added, so the store can be read by any number of threads without locking
+	synchronized void freeze() {
+		sort();
+		frozen = true;
+	}
+
+	// sort the entries by index, keeping only the entry with the most iterations for each index
+	synchronized void sort() {
+		if(sorted) {
+			return;
+		}
+		// sort (index, position) pairs packed into longs, then permute the entries to match
+		long[] keys = new long[size];
+		for(int e = 0; e < size; e++) {
+			keys[e] = (long)indices[e] << 32 | e;
+		}
+		Arrays.sort(keys);
+		int[] sortedIndices = new int[size];
+		double[] sortedRe = new double[size];
+		double[] sortedIm = new double[size];
+		int[] sortedIterations = new int[size];
+		int n = 0;
+		for(long key : keys) {
+			int e = (int)key;
+			if(n > 0 && sortedIndices[n - 1] == indices[e]) {
+				if(iterations[e] <= sortedIterations[n - 1]) {
+					continue;
+				}
+				n--;	// replace the duplicate with the entry that got further
+			}
+			sortedIndices[n] = indices[e];
+			sortedRe[n] = re[e];
+			sortedIm[n] = im[e];
+			sortedIterations[n] = iterations[e];
+			n++;
+		}
+		size = n;
+		indices = sortedIndices;
+		re = sortedRe;
+		im = sortedIm;
+		iterations = sortedIterations;
+		sorted = true;
+	}
+
+	// frozen copy of the entries added so far, which entries added later can't change
+	synchronized OrbitStore snapshot() {
+		OrbitStore copy = new OrbitStore(0);
+		copy.size = size;
+		copy.indices = Arrays.copyOf(indices, size);
+		copy.re = Arrays.copyOf(re, size);
+		copy.im = Arrays.copyOf(im, size);
+		copy.iterations = Arrays.copyOf(iterations, size);
+		copy.sorted = sorted;
+		copy.freeze();
+		return copy;
+	}
+
+	// size of the entries' arrays (bytes)
+	synchronized long getBytes() {
+		return 24L*indices.length;
+	}
+
+	// position of the entry of a sample (-1 if there isn't one); the store must be sorted and no longer added to (frozen, or a
+	// snapshot)
+	int find(int index) {
+		int position = Arrays.binarySearch(indices, 0, size, index);
+		return position >= 0 ? position : -1;
+	}
+}
@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* class PixelStore:
+ * - keeps the pixel values of a FractalRenderer render in a memory-mapped file, so a render that's interrupted can resume where it
+ *   stopped, and the values never take up heap
+ *     - the file holds a header with the render's parameters, a flag per tile saying whether the tile is done, and the value of every
+ *       pixel (see FractalCalculator.getPixelValue) as a big-endian double, row by row
+ *     - rows are mapped a band at a time (see mapRows()), so images of any size fit in the address space
+ *     - a tile is flagged as done only after its values have been forced to the file, so a tile flagged as done survives a crash
+ * - opening an existing file resumes it, if it was made for the same render (same parameters and tile grid)
+ */
+
+public class PixelStore {
+
+	static int HEADER_BYTES = 1 << 16;	// space for the header text (bytes)
+	static int PAGE_BYTES = 4096;		// alignment of the flags and values
+	static final String MAGIC = "FRACTALSTORE";
+
+	FileChannel channel;
+	int widthPixels;			// image size
+	int heightPixels;
+	int tileWidth;				// tile grid: tile (x0, y0) covers [x0, x0 + tileWidth) x [y0, y0 + tileHeight)
+	int tileHeight;
+	int tilesAcross;
+	int nTiles;
+	MappedByteBuffer flags;		// one byte per tile, row by row: 1 if the tile is done
+	long valuesOffset;			// position of the first pixel value in the file
+
+	// constructor: open the store at path for a render, creating it if it doesn't exist
+	// throws IllegalArgumentException if the file exists but was made for a different render
+	PixelStore(Path path, int widthPixels, int heightPixels, int tileWidth, int tileHeight, Map<String, String> metadata) throws IOException {
+		this.widthPixels = widthPixels;
+		this.heightPixels = heightPixels;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		tilesAcross = (widthPixels + tileWidth - 1)/tileWidth;
+		nTiles = tilesAcross*((heightPixels + tileHeight - 1)/tileHeight);
+		long flagsBytes = (nTiles + PAGE_BYTES - 1)/PAGE_BYTES*(long)PAGE_BYTES;
+		valuesOffset = HEADER_BYTES + flagsBytes;
+
+		// the header: parameters of the render, including the image size and tile grid
+		Map<String, String> header = new LinkedHashMap<String, String>(metadata);
+		header.put("store.widthPixels", Integer.toString(widthPixels));
+		header.put("store.heightPixels", Integer.toString(heightPixels));
+		header.put("store.tileWidth", Integer.toString(tileWidth));
+		header.put("store.tileHeight", Integer.toString(tileHeight));
+		StringBuilder text = new StringBuilder(MAGIC + "\n");
+		for(Map.Entry<String, String> entry : header.entrySet()) {
+			text.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		}
+		text.append('\n');
+		byte[] headerBytes = text.toString().getBytes(StandardCharsets.UTF_8);
+		if(headerBytes.length > HEADER_BYTES) {
+			throw new IllegalArgumentException("Illegal arguments passed to PixelStore constructor: parameters don't fit in the header");
+		}
+
+		boolean exists = Files.exists(path) && Files.size(path) > 0;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(exists) {
+			ByteBuffer existing = ByteBuffer.allocate(headerBytes.length);
+			channel.read(existing, 0);
+			if(existing.hasRemaining() || !existing.flip().equals(ByteBuffer.wrap(headerBytes))) {
+				channel.close();
+				throw new IllegalArgumentException(String.format("Illegal arguments passed to PixelStore constructor: %s was made for a different render",
+						path));
+			}
+		}
+		else {
+			channel.write(ByteBuffer.wrap(headerBytes), 0);
+		}
+		long size = valuesOffset + 8L*widthPixels*heightPixels;
+		if(channel.size() < size) {
+			channel.write(ByteBuffer.wrap(new byte[1]), size - 1);	// (sparse, where the file system allows)
+		}
+		flags = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, nTiles);
+	}
+
+	// index of the tile whose top left pixel is (x0, y0)
+	int getTileIndex(int x0, int y0) {
+		if(x0%tileWidth != 0 || y0%tileHeight != 0 || x0 < 0 || x0 >= widthPixels || y0 < 0 || y0 >= heightPixels) {
+			throw new IllegalArgumentException("Illegal arguments passed to PixelStore.getTileIndex: (x0, y0) isn't a tile of the grid");
+		}
+		return y0/tileHeight*tilesAcross + x0/tileWidth;
+	}
+
+	// whether the tile whose top left pixel is (x0, y0) is done
+	boolean isDone(int x0, int y0) {
+		return flags.get(getTileIndex(x0, y0)) != 0;
+	}
+
+	// number of tiles done
+	int countDone() {
+		int done = 0;
+		for(int t = 0; t < nTiles; t++) {
+			done += flags.get(t) != 0 ? 1 : 0;
+		}
+		return done;
+	}
+
+	// map the values of the rows [y0, y0 + rows), with the value of pixel (i, y0 + j) at double index j*widthPixels + i
+	MappedByteBuffer mapRows(int y0, int rows) throws IOException {
+		if(y0 < 0 || rows < 1 || y0 + rows > heightPixels || 8L*widthPixels*rows > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Illegal arguments passed to PixelStore.mapRows: rows out of range or too many to map");
+		}
+		return channel.map(FileChannel.MapMode.READ_WRITE, valuesOffset + 8L*widthPixels*y0, 8L*widthPixels*rows);
+	}
+
+	// flag the tile whose top left pixel is (x0, y0) as done, once the rows it's been written to are on disk
+	void setDone(MappedByteBuffer rows, int x0, int y0) {
+		rows.force();
+		flags.put(getTileIndex(x0, y0), (byte)1);
+		flags.force();
+	}
+
+	// close the file (mapped buffers are unmapped once they're garbage-collected)
+	void close() throws IOException {
+		flags.force();
+		channel.close();
+	}
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/* class PngStreamWriter:
+ * - writes an 8-bit RGB PNG one row at a time, so images too large to hold in memory can be encoded as they're calculated
+ *     - each row is filtered (with the Sub filter) and fed to a Deflater, whose output is written in IDAT chunks as it accumulates
+ *     - text metadata is written in tEXt chunks before the image data
+ */
+
+public class PngStreamWriter {
+
+	static int CHUNK_SIZE = 1 << 16;	// size of compressed data written per IDAT chunk (bytes)
+	static final byte[] SIGNATURE = {(byte)137, 'P', 'N', 'G', 13, 10, 26, 10};
+
+	OutputStream out;		// stream the PNG is written to
+	int width;				// image size (pixels)
+	int height;
+	int rowsWritten;		// number of rows written so far
+	Deflater deflater;		// compressor for the filtered rows
+	byte[] filteredRow;		// filter type byte followed by the filtered bytes of a row
+	byte[] chunkBuffer;		// compressed data waiting to be written
+
+	// constructor: write the PNG signature, header, and text metadata (keyword -> text, in Latin-1; may be null)
+	PngStreamWriter(OutputStream out, int width, int height, Map<String, String> text) throws IOException {
+		if(width < 1 || height < 1 || 3L*width + 1 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Illegal arguments passed to PngStreamWriter constructor: width or height out of range");
+		}
+		this.out = out;
+		this.width = width;
+		this.height = height;
+		deflater = new Deflater();
+		filteredRow = new byte[3*width + 1];
+		chunkBuffer = new byte[CHUNK_SIZE];
+
+		out.write(SIGNATURE);
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8;		// bit depth
+		header[9] = 2;		// colour type: RGB
+		header[10] = 0;		// compression: deflate
+		header[11] = 0;		// filter method: adaptive (per-row filter type byte)
+		header[12] = 0;		// interlacing: none
+		writeChunk("IHDR", header, header.length);
+		if(text != null) {
+			for(Map.Entry<String, String> entry : text.entrySet()) {
+				byte[] keyword = entry.getKey().getBytes(StandardCharsets.ISO_8859_1);
+				byte[] value = entry.getValue().getBytes(StandardCharsets.ISO_8859_1);
+				byte[] data = new byte[keyword.length + 1 + value.length];
+				System.arraycopy(keyword, 0, data, 0, keyword.length);
+				System.arraycopy(value, 0, data, keyword.length + 1, value.length);	// keyword and text are separated by a zero byte
+				writeChunk("tEXt", data, data.length);
+			}
+		}
+	}
+
+	// write the next row of the image, from 3*width bytes (R, G, B for each pixel) of rgb starting at offset
+	void writeRow(byte[] rgb, int offset) throws IOException {
+		if(rowsWritten >= height) {
+			throw new IllegalStateException("PngStreamWriter.writeRow called after every row was written");
+		}
+		filteredRow[0] = 1;	// Sub filter: each byte is stored as its difference from the same channel of the pixel to its left
+		for(int n = 0; n < 3*width; n++) {
+			filteredRow[n + 1] = (byte)(rgb[offset + n] - (n >= 3 ? rgb[offset + n - 3] : 0));
+		}
+		deflater.setInput(filteredRow);
+		while(!deflater.needsInput()) {
+			int length = deflater.deflate(chunkBuffer);
+			if(length > 0) {
+				writeChunk("IDAT", chunkBuffer, length);
+			}
+		}
+		rowsWritten++;
+	}
+
+	// write the remaining compressed data and the end of the PNG, then close the stream
+	void close() throws IOException {
+		if(rowsWritten != height) {
+			throw new IllegalStateException(String.format("PngStreamWriter.close called after %s of %s rows were written", rowsWritten, height));
+		}
+		deflater.finish();
+		while(!deflater.finished()) {
+			int length = deflater.deflate(chunkBuffer);
+			if(length > 0) {
+				writeChunk("IDAT", chunkBuffer, length);
+			}
+		}
+		deflater.end();
+		writeChunk("IEND", chunkBuffer, 0);
+		out.close();
+	}
+
+	// write a chunk: length, type, data, and CRC of type and data
+	void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		byte[] intBytes = new byte[4];
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+
+		writeInt(intBytes, 0, length);
+		out.write(intBytes);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		writeInt(intBytes, 0, (int)crc.getValue());
+		out.write(intBytes);
+	}
+
+	// store an int in 4 bytes of an array, most significant byte first
+	static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte)(value >>> 24);
+		bytes[offset + 1] = (byte)(value >>> 16);
+		bytes[offset + 2] = (byte)(value >>> 8);
+		bytes[offset + 3] = (byte)value;
+	}
+}
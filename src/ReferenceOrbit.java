@@ -0,0 +1,107 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/* class ReferenceOrbit:
+ * - contains the orbit of a single high-precision reference point, for perturbation-theory calculation of nearby points
+ *     - constructor iterates z_{n+1} = z_n^2 + c in high precision until z escapes or n reaches maxIter
+ *         - uses double-double arithmetic if it has enough digits for the MathContext, and BigDecimal otherwise
+ *     - the orbit is stored in double precision, since only the deltas from it need to be resolved beyond double precision
+ */
+
+public class ReferenceOrbit {
+
+	// reference point
+	BigDecimal centerRe;	// real coordinate of the reference point, in full precision
+	BigDecimal centerIm;	// imaginary coordinate of the reference point, in full precision
+
+	// orbit
+	double[] re;	// real part of z_n for n = 0, 1, ..., length - 1
+	double[] im;	// imaginary part of z_n
+	int length;		// number of orbit values stored; the orbit escaped (or reached maxIter) at n = length - 1
+
+	static int DOUBLEDOUBLE_DIGITS = 30;	// decimal digits that double-double arithmetic can be trusted with
+
+	// constructor: calculate the orbit of the reference point to the given precision
+	ReferenceOrbit(BigDecimal centerRe, BigDecimal centerIm, int maxIter, double escapeRadius, MathContext mc) {
+		this.centerRe = centerRe;
+		this.centerIm = centerIm;
+		re = new double[maxIter + 1];
+		im = new double[maxIter + 1];
+		
+		if(mc.getPrecision() <= DOUBLEDOUBLE_DIGITS) {
+			calculateDoubleDouble(maxIter, escapeRadius);
+		}
+		else {
+			calculateBigDecimal(maxIter, escapeRadius, mc);
+		}
+	}
+	
+	// calculate the orbit in arbitrary precision
+	void calculateBigDecimal(int maxIter, double escapeRadius, MathContext mc) {
+		BigDecimal r = BigDecimal.ZERO;
+		BigDecimal i = BigDecimal.ZERO;
+		double escapeRadiusSquared = escapeRadius*escapeRadius;
+
+		int n = 0;
+		while(true) {
+			re[n] = r.doubleValue();
+			im[n] = i.doubleValue();
+
+			// stop once z_n has escaped or n has reached maxIter
+			if(re[n]*re[n] + im[n]*im[n] >= escapeRadiusSquared || n >= maxIter) {
+				break;
+			}
+
+			// iterate z_{n+1} = z_n^2 + c
+			BigDecimal rt = r;
+			r = rt.multiply(rt, mc).subtract(i.multiply(i, mc), mc).add(centerRe, mc);
+			i = rt.multiply(i, mc).multiply(BigDecimal.valueOf(2), mc).add(centerIm, mc);
+			n++;
+		}
+		length = n + 1;
+	}
+	
+	// calculate the orbit in double-double precision (see FractalCalculator.MandelbrotPointDoubleDouble)
+	void calculateDoubleDouble(int maxIter, double escapeRadius) {
+		double r0Hi = centerRe.doubleValue();
+		double r0Lo = centerRe.subtract(new BigDecimal(r0Hi)).doubleValue();
+		double i0Hi = centerIm.doubleValue();
+		double i0Lo = centerIm.subtract(new BigDecimal(i0Hi)).doubleValue();
+		double rHi = 0, rLo = 0;
+		double iHi = 0, iLo = 0;
+		double escapeRadiusSquared = escapeRadius*escapeRadius;
+		
+		int n = 0;
+		while(true) {
+			re[n] = rHi;
+			im[n] = iHi;
+			
+			// stop once z_n has escaped or n has reached maxIter
+			if(rHi*rHi + iHi*iHi >= escapeRadiusSquared || n >= maxIter) {
+				break;
+			}
+			
+			// iterate z_{n+1} = z_n^2 + c
+			double rrHi = rHi*rHi;
+			double rrLo = Math.fma(rHi, rHi, -rrHi) + 2*rHi*rLo;
+			double iiHi = iHi*iHi;
+			double iiLo = Math.fma(iHi, iHi, -iiHi) + 2*iHi*iLo;
+			double riHi = rHi*iHi;
+			double riLo = Math.fma(rHi, iHi, -riHi) + rHi*iLo + rLo*iHi;
+			
+			double sHi = rrHi - iiHi;
+			double sLo = FractalCalculator.twoSumError(rrHi, -iiHi, sHi) + rrLo - iiLo;
+			double tHi = sHi + r0Hi;
+			double tLo = FractalCalculator.twoSumError(sHi, r0Hi, tHi) + sLo + r0Lo;
+			rHi = tHi + tLo;
+			rLo = tLo - (rHi - tHi);
+			
+			tHi = 2*riHi + i0Hi;
+			tLo = FractalCalculator.twoSumError(2*riHi, i0Hi, tHi) + 2*riLo + i0Lo;
+			iHi = tHi + tLo;
+			iLo = tLo - (iHi - tHi);
+			n++;
+		}
+		length = n + 1;
+	}
+}
@@ -0,0 +1,56 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/* class RenderJob:
+ * - one update of a FractalLabel: the calculation of a view into a fractal array of its own, tagged with the scheduler generation it
+ *   started in
+ *     - each job has its own array, progress counter, counts, and orbit stores, so a cancelled job that's still finishing can't
+ *       write into the results of a newer one
+ *     - a job is stale once the scheduler's generation has moved on (see FractalScheduler.cancel), and its images are then discarded
+ *       instead of shown
+ */
+
+public class RenderJob {
+
+	final int generation;			// scheduler generation the job started in
+	final FractalView view;			// description of the calculation
+	final double[] fractal;			// flat array of the job's fractal values (laid out as described by view)
+	final LongAdder progress;		// number of samples calculated (chunks of samples, for a Buddhabrot)
+	final long[] counts;			// iteration statistics (indexed by FractalCalculator.COUNT_ constants)
+	final OrbitStore orbits;		// last z_n of the samples that reach maxIter
+	final OrbitStore resume;		// samples that reached a lower maxIter in an earlier job, to resume (filled from a SampleCache,
+									// then frozen by startResuming())
+	final FractalCalculator calculator;	// calculator filling the array
+	RenderMetrics.RenderEvent render;	// metrics of the job (see RenderMetrics.startRender), if it's being timed
+	BuddhabrotCalculator buddhabrot;	// if not null, accumulates the job's orbit density instead of filling the array
+
+	// constructor: create an uncalculated array for the view, and a calculator for it
+	RenderJob(FractalView view, int generation) {
+		this.generation = generation;
+		this.view = view;
+		fractal = new double[view.getSampleCount()];
+		Arrays.fill(fractal, FractalCalculator.NOT_CALCULATED);
+		progress = new LongAdder();
+		counts = new long[FractalCalculator.N_COUNTS];
+		orbits = new OrbitStore();
+		resume = new OrbitStore();
+		calculator = new FractalCalculator(view, fractal, progress, counts);
+		if(FractalCalculator.canResume(view.precision)) {
+			calculator.orbits = orbits;
+		}
+	}
+
+	// freeze resume once it's been filled, and let the calculator resume its samples if there are any (otherwise the calculator
+	// doesn't look samples up in it at all)
+	void startResuming() {
+		resume.freeze();
+		if(resume.size > 0 && FractalCalculator.canResume(view.precision)) {
+			calculator.resume = resume;
+		}
+	}
+
+	// whether the job has been cancelled (or superseded) since it started
+	boolean isStale(FractalScheduler scheduler) {
+		return scheduler.generation != generation;
+	}
+}
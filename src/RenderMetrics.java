@@ -0,0 +1,369 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/* class RenderMetrics:
+ * - collects performance metrics of the calculations of a FractalScheduler, cheaply enough to stay on in every render
+ *     - totals are kept in striped counters (LongAdder), so the tasks of a calculation add to them without contending for a lock
+ *     - work: samples calculated and filled, iterations, and iterations per second of thread time spent in tiles
+ *     - tiles: count, cancelled tiles (skipped or stopped early), and a latency histogram in power-of-two buckets of microseconds
+ *         - only leaf tiles (calculated, or filled from their border) are counted; the Mariani-Silver borders of tiles that were then
+ *           split are timed separately, as border time (see endBorder())
+ *     - renders (started by FractalLabel or FractalRenderer): time to first image, total time, and the GC count, GC time, and
+ *       allocation by tiles during the last render
+ * - is exposed through JMX (see RenderMetricsMBean and register()), and emits JFR events for each tile and render, so renders can be
+ *   profiled with JConsole, VisualVM, or a flight recording (e.g. java -XX:StartFlightRecording=filename=render.jfr FractalRenderer ...)
+ */
+
+public class RenderMetrics implements RenderMetricsMBean {
+
+	static int LATENCY_BUCKETS = 32;	// bucket b counts tiles taking [2^(b-1), 2^b) microseconds (bucket 0 those under 1 microsecond)
+
+	// allocation counter of the current thread (null if the JVM doesn't support it)
+	static final com.sun.management.ThreadMXBean THREAD_BEAN = getThreadBean();
+
+	// work
+	final LongAdder samples = new LongAdder();			// samples calculated
+	final LongAdder filled = new LongAdder();			// samples filled in from their surroundings (see FractalCalculator.fillTile)
+	final LongAdder iterations = new LongAdder();		// iterations calculated
+
+	// tiles
+	final LongAdder tiles = new LongAdder();			// leaf tiles calculated or filled
+	final LongAdder tilesCancelled = new LongAdder();	// tiles skipped or stopped early because their calculation was cancelled
+	final LongAdder tileNanos = new LongAdder();		// thread time spent in tiles (ns)
+	final LongAdder borderNanos = new LongAdder();		// thread time spent on the borders of tiles that were then split (ns)
+	final LongAdder tileBytes = new LongAdder();		// bytes allocated by threads while in tiles
+	final LongAdder[] tileLatency = new LongAdder[LATENCY_BUCKETS];
+
+	// renders
+	final LongAdder rendersFinished = new LongAdder();
+	final LongAdder rendersCancelled = new LongAdder();
+	volatile long lastTimeToFirstImageNanos;
+	volatile long lastRenderNanos;
+	volatile long lastRenderGcCount;
+	volatile long lastRenderGcMillis;
+	volatile long lastRenderAllocatedBytes;
+
+	// constructor: create the histogram buckets
+	RenderMetrics() {
+		for(int b = 0; b < LATENCY_BUCKETS; b++) {
+			tileLatency[b] = new LongAdder();
+		}
+	}
+
+	// register with the platform MBean server as fractal:type=RenderMetrics,name=<name>
+	void register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("fractal:type=RenderMetrics,name=" + ObjectName.quote(name)));
+		} catch (JMException e) {
+			System.err.println(String.format("Warning: couldn't register RenderMetrics %s with JMX (%s)", name, e));
+		}
+	}
+
+	// add the work of a finished piece of calculation
+	void addWork(int calculated, long[] localCounts) {
+		samples.add(calculated - localCounts[FractalCalculator.COUNT_FILLED]);
+		filled.add(localCounts[FractalCalculator.COUNT_FILLED]);
+		iterations.add(localCounts[FractalCalculator.COUNT_ITERATIONS]);
+	}
+
+	// start timing a tile on the current thread
+	TileEvent startTile() {
+		TileEvent event = new TileEvent();
+		event.startNanos = System.nanoTime();
+		event.startBytes = getThreadAllocatedBytes();
+		event.begin();
+		return event;
+	}
+
+	// finish timing a tile of a calculation; returns the time it took (ns)
+	long endTile(TileEvent event, FractalCalculator calculator, int x0, int y0, int x1, int y1, boolean fill) {
+		long nanos = System.nanoTime() - event.startNanos;
+		long bytes = getThreadAllocatedBytes() - event.startBytes;
+		tiles.increment();
+		tileNanos.add(nanos);
+		tileBytes.add(bytes);
+		tileLatency[Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos/1000))].increment();
+		boolean cancelled = calculator.isCancelled();
+		if(cancelled) {
+			tilesCancelled.increment();
+		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.x0 = x0;
+			event.y0 = y0;
+			event.x1 = x1;
+			event.y1 = y1;
+			event.passStride = calculator.passStride;
+			event.passSamples = calculator.passSamples;
+			event.fill = fill;
+			event.cancelled = cancelled;
+			event.allocated = bytes;
+			event.commit();
+		}
+		return nanos;
+	}
+
+	// finish timing the border of a tile that will be split instead of filled (it isn't counted as a tile, and its event isn't committed)
+	void endBorder(TileEvent event) {
+		borderNanos.add(System.nanoTime() - event.startNanos);
+		tileBytes.add(getThreadAllocatedBytes() - event.startBytes);
+	}
+
+	// start a render of a view
+	RenderEvent startRender(FractalView view) {
+		RenderEvent event = new RenderEvent();
+		event.widthPixels = view.widthPixels;
+		event.heightPixels = view.heightPixels;
+		event.samplesPerPixel = view.samplesPerPixel;
+		event.maxIter = view.maxIter;
+		event.precision = FractalCalculator.PRECISION_NAMES[view.precision];
+		event.startNanos = System.nanoTime();
+		event.startSamples = samples.sum();
+		event.startIterations = iterations.sum();
+		event.startGcCount = getGcCount();
+		event.startGcMillis = getGcMillis();
+		event.startBytes = tileBytes.sum();
+		event.begin();
+		return event;
+	}
+
+	// note that the first image (e.g. a preview) of a render has been shown
+	void firstImage(RenderEvent render) {
+		if(render.timeToFirstImage == 0) {
+			render.timeToFirstImage = System.nanoTime() - render.startNanos;
+			lastTimeToFirstImageNanos = render.timeToFirstImage;
+		}
+	}
+
+	// finish a render, which was either finished or cancelled
+	void endRender(RenderEvent render, boolean cancelled) {
+		render.end();
+		(cancelled ? rendersCancelled : rendersFinished).increment();
+		lastRenderNanos = System.nanoTime() - render.startNanos;
+		lastRenderGcCount = getGcCount() - render.startGcCount;
+		lastRenderGcMillis = getGcMillis() - render.startGcMillis;
+		lastRenderAllocatedBytes = tileBytes.sum() - render.startBytes;
+		if(render.shouldCommit()) {
+			render.cancelled = cancelled;
+			render.samples = samples.sum() - render.startSamples;
+			render.iterations = iterations.sum() - render.startIterations;
+			render.gcCount = lastRenderGcCount;
+			render.gcTime = lastRenderGcMillis*1000000;
+			render.allocated = lastRenderAllocatedBytes;
+			render.commit();
+		}
+	}
+
+	// describe the last render, and the totals since the last reset
+	String getReport() {
+		return String.format("Render %.1f ms (first image %.1f ms), %s GCs (%s ms), %.1f MB allocated by tiles; totals: %s samples, %s iterations "
+				+ "(%.3g per thread-second), %s tiles (%s cancelled, p50 %.3f ms, p99 %.3f ms)", 1e-6*lastRenderNanos, 1e-6*lastTimeToFirstImageNanos,
+				lastRenderGcCount, lastRenderGcMillis, lastRenderAllocatedBytes/1048576.0, samples.sum(), iterations.sum(),
+				getIterationsPerThreadSecond(), tiles.sum(), tilesCancelled.sum(), getTileLatencyP50Millis(), getTileLatencyP99Millis());
+	}
+
+	// latency (upper bound of its histogram bucket) below which a fraction q of tiles finished (ms)
+	double getTileLatencyPercentileMillis(double q) {
+		long[] histogram = getTileLatencyHistogram();
+		long total = 0;
+		for(long count : histogram) {
+			total += count;
+		}
+		long below = 0;
+		for(int b = 0; b < LATENCY_BUCKETS; b++) {
+			below += histogram[b];
+			if(below > 0 && below >= q*total) {
+				return 0.001*(1L << b);
+			}
+		}
+		return 0;
+	}
+
+	// bytes allocated by the current thread so far (0 if unsupported)
+	static long getThreadAllocatedBytes() {
+		return THREAD_BEAN == null ? 0 : THREAD_BEAN.getCurrentThreadAllocatedBytes();
+	}
+
+	// total collections and collection time (ms) of all garbage collectors so far
+	static long getGcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	static long getGcMillis() {
+		long millis = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	// the JVM's allocation counter, if it has one and it can be enabled
+	static com.sun.management.ThreadMXBean getThreadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)bean;
+			allocationBean.setThreadAllocatedMemoryEnabled(true);
+			return allocationBean;
+		}
+		return null;
+	}
+
+	// RenderMetricsMBean attributes
+	public long getSamplesCalculated() {
+		return samples.sum();
+	}
+
+	public long getSamplesFilled() {
+		return filled.sum();
+	}
+
+	public long getIterations() {
+		return iterations.sum();
+	}
+
+	public long getTilesCalculated() {
+		return tiles.sum();
+	}
+
+	public long getTilesCancelled() {
+		return tilesCancelled.sum();
+	}
+
+	public double getIterationsPerThreadSecond() {
+		return iterations.sum()/Math.max(1e-9, 1e-9*(tileNanos.sum() + borderNanos.sum()));
+	}
+
+	public double getSplitBorderMillis() {
+		return 1e-6*borderNanos.sum();
+	}
+
+	public long[] getTileLatencyHistogram() {
+		long[] histogram = new long[LATENCY_BUCKETS];
+		for(int b = 0; b < LATENCY_BUCKETS; b++) {
+			histogram[b] = tileLatency[b].sum();
+		}
+		return histogram;
+	}
+
+	public double getTileLatencyMeanMillis() {
+		return 1e-6*tileNanos.sum()/Math.max(1, tiles.sum());
+	}
+
+	public double getTileLatencyP50Millis() {
+		return getTileLatencyPercentileMillis(0.5);
+	}
+
+	public double getTileLatencyP99Millis() {
+		return getTileLatencyPercentileMillis(0.99);
+	}
+
+	public long getRendersFinished() {
+		return rendersFinished.sum();
+	}
+
+	public long getRendersCancelled() {
+		return rendersCancelled.sum();
+	}
+
+	public double getLastTimeToFirstImageMillis() {
+		return 1e-6*lastTimeToFirstImageNanos;
+	}
+
+	public double getLastRenderMillis() {
+		return 1e-6*lastRenderNanos;
+	}
+
+	public long getLastRenderGcCount() {
+		return lastRenderGcCount;
+	}
+
+	public long getLastRenderGcMillis() {
+		return lastRenderGcMillis;
+	}
+
+	public long getLastRenderAllocatedBytes() {
+		return lastRenderAllocatedBytes;
+	}
+
+	// RenderMetricsMBean operations
+	public void reset() {
+		for(LongAdder adder : new LongAdder[] {samples, filled, iterations, tiles, tilesCancelled, tileNanos, borderNanos, tileBytes, rendersFinished, rendersCancelled}) {
+			adder.reset();
+		}
+		for(LongAdder bucket : tileLatency) {
+			bucket.reset();
+		}
+	}
+
+	/* class TileEvent:
+	 * - JFR event for one tile of a calculation (only tiles slower than the threshold are recorded by default, since there are
+	 *   thousands per render)
+	 */
+	@Name("fractal.Tile")
+	@Label("Fractal Tile")
+	@Category("Fractal")
+	@Description("Calculation of a rectangle of pixels by one task")
+	@Threshold("10 ms")
+	static class TileEvent extends Event {
+		@Label("x0") int x0;
+		@Label("y0") int y0;
+		@Label("x1") int x1;
+		@Label("y1") int y1;
+		@Label("Pass Stride") int passStride;
+		@Label("Pass Samples") int passSamples;
+		@Label("Border Fill") @Description("Whether the tile was filled from its Mariani-Silver border") boolean fill;
+		@Label("Cancelled") boolean cancelled;
+		@Label("Allocated") @DataAmount long allocated;
+
+		// (not recorded)
+		transient long startNanos;
+		transient long startBytes;
+	}
+
+	/* class RenderEvent:
+	 * - JFR event for one render of a view, from start to finish or cancellation
+	 */
+	@Name("fractal.Render")
+	@Label("Fractal Render")
+	@Category("Fractal")
+	@Description("Calculation of a view, from the start of its first pass to its end or cancellation")
+	static class RenderEvent extends Event {
+		@Label("Width") int widthPixels;
+		@Label("Height") int heightPixels;
+		@Label("Samples per Pixel") int samplesPerPixel;
+		@Label("Max Iterations") int maxIter;
+		@Label("Precision") String precision;
+		@Label("Cancelled") boolean cancelled;
+		@Label("Time to First Image") @Timespan long timeToFirstImage;
+		@Label("Samples") long samples;
+		@Label("Iterations") long iterations;
+		@Label("GC Count") long gcCount;
+		@Label("GC Time") @Timespan long gcTime;
+		@Label("Allocated by Tiles") @DataAmount long allocated;
+
+		// snapshot of the totals when the render started (not recorded)
+		transient long startNanos;
+		transient long startSamples;
+		transient long startIterations;
+		transient long startGcCount;
+		transient long startGcMillis;
+		transient long startBytes;
+	}
+}
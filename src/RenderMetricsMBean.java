@@ -0,0 +1,32 @@
+/* interface RenderMetricsMBean:
+ * - the attributes and operations of RenderMetrics that are exposed through JMX (e.g. to JConsole or VisualVM)
+ */
+
+public interface RenderMetricsMBean {
+
+	// work
+	long getSamplesCalculated();
+	long getSamplesFilled();
+	long getIterations();
+	long getTilesCalculated();
+	long getTilesCancelled();
+	double getIterationsPerThreadSecond();
+	double getSplitBorderMillis();
+
+	// tile latency
+	long[] getTileLatencyHistogram();
+	double getTileLatencyMeanMillis();
+	double getTileLatencyP50Millis();
+	double getTileLatencyP99Millis();
+
+	// renders
+	long getRendersFinished();
+	long getRendersCancelled();
+	double getLastTimeToFirstImageMillis();
+	double getLastRenderMillis();
+	long getLastRenderGcCount();
+	long getLastRenderGcMillis();
+	long getLastRenderAllocatedBytes();
+
+	void reset();
+}
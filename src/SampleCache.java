@@ -0,0 +1,202 @@
+import java.util.LinkedList;
+
+/* class SampleCache:
+ * - keeps the fractal arrays of the last few calculations, with the views that describe them
+ *     - arrays are added before their calculation starts, so samples of cancelled calculations are reused as well
+ * - fills a new fractal array with every previously calculated sample that lands on the same point in fractal space
+ *     - only views with the same rotation, maxIter, escape radius, precision, and periodicity checking are compatible
+ *     - points only coincide when the pixel sizes differ by a power of two and the centers differ by whole (scaled) pixels,
+ *       which covers pans by whole pixels and 2x zooms about the center
+ *     - sample offsets are matched individually, so (for example) pans reuse antialiasing samples, but zooms usually only reuse
+ *       samples at offset zero (the first sample of every pattern, see SamplePattern)
+ *     - pixels copied from their mirror pixels (see FractalCalculator.isCopied) are only reused if the sample pattern is symmetric
+ * - FractalLabel keeps a second cache of calculations it prefetched, which can also be looked up by view (see find())
+ *     - the two are kept within CACHE_BYTES together, dropping prefetched calculations first (see getBytes() and removeOldest())
+ * - keeps the OrbitStore of each calculation too, so samples that reached maxIter can be resumed when maxIter is increased
+ *     - views with a higher maxIter are compatible as well: samples that escaped or are in the set are copied, and samples that
+ *       reached the lower maxIter are left uncalculated, with their last z_n added to the new calculation's resume store
+ *     - samples copied between views with the same maxIter take their last z_n along, so it's still there after a pan or zoom
+ */
+
+public class SampleCache {
+
+	static int CACHE_SIZE = 3;						// default largest number of previous calculations kept (fill() checks each of them)
+	static long CACHE_BYTES = Runtime.getRuntime().maxMemory()/4;	// largest size of the calculations FractalLabel keeps cached (bytes)
+	static int MAX_SCALE_PERIOD = 8;				// largest zoom-in factor between views that is checked for coinciding samples
+	static double SAMPLE_MATCH_TOLERANCE = 1e-6;	// distance at which samples count as coinciding (pixels)
+
+	LinkedList<FractalView> views = new LinkedList<FractalView>();	// views of the cached calculations, most recent first
+	LinkedList<double[]> fractals = new LinkedList<double[]>();		// fractal arrays of the cached calculations
+	LinkedList<OrbitStore> orbits = new LinkedList<OrbitStore>();	// last z_n of the samples of the cached calculations that reached maxIter
+	int size;										// largest number of calculations kept
+
+	// constructor: create an empty cache of the default size
+	SampleCache() {
+		this(CACHE_SIZE);
+	}
+
+	// constructor: create an empty cache that keeps the given number of calculations
+	SampleCache(int size) {
+		this.size = size;
+	}
+
+	// add a calculation, and the store receiving its samples that reach maxIter, to the cache, dropping the oldest one if the cache
+	// is full
+	synchronized void add(FractalView view, double[] fractal, OrbitStore orbitStore) {
+		views.addFirst(view);
+		fractals.addFirst(fractal);
+		orbits.addFirst(orbitStore);
+		if(views.size() > size) {
+			views.removeLast();
+			fractals.removeLast();
+			orbits.removeLast();
+		}
+	}
+
+	// fractal array of the most recent cached calculation of the same view (see FractalView.matches), or null if there isn't one
+	synchronized double[] find(FractalView view) {
+		for(int n = 0; n < views.size(); n++) {
+			if(views.get(n).matches(view)) {
+				return fractals.get(n);
+			}
+		}
+		return null;
+	}
+
+	// size of the arrays and orbit stores of the cached calculations (bytes)
+	synchronized long getBytes() {
+		long bytes = 0;
+		for(int n = 0; n < views.size(); n++) {
+			bytes += 8L*fractals.get(n).length + orbits.get(n).getBytes();
+		}
+		return bytes;
+	}
+
+	// drop the oldest calculation, unless only keep calculations are left; returns whether one was dropped
+	synchronized boolean removeOldest(int keep) {
+		if(views.size() <= keep) {
+			return false;
+		}
+		views.removeLast();
+		fractals.removeLast();
+		orbits.removeLast();
+		return true;
+	}
+
+	// empty the cache
+	synchronized void clear() {
+		views.clear();
+		fractals.clear();
+		orbits.clear();
+	}
+
+	// copy every cached sample that coincides with an uncalculated sample of the view into its fractal array, most recent first
+	// samples that reached a lower maxIter are added to resume instead, and the last z_n of copied samples that reached maxIter is
+	// added to orbitStore (either store may be null); returns the number of samples copied
+	synchronized int fill(FractalView view, double[] fractal, OrbitStore orbitStore, OrbitStore resume) {
+		int copied = 0;
+		for(int n = 0; n < views.size(); n++) {
+			// (its calculation may still be adding to it, if it was cancelled while tiles were running, so copy from a snapshot)
+			copied += copySamples(views.get(n), fractals.get(n), orbits.get(n).snapshot(), view, fractal, orbitStore, resume);
+		}
+		if(resume != null) {
+			resume.sort();
+		}
+		return copied;
+	}
+
+	// whether samples of two views at the same point in fractal space have the same value (if the new view's maxIter is higher, the
+	// same value unless the old sample reached maxIter)
+	static boolean isCompatible(FractalView oldView, FractalView newView) {
+		return oldView.rotation == newView.rotation && oldView.escapeRadius == newView.escapeRadius && oldView.precision == newView.precision
+				&& (oldView.periodicityTolerance == 0) == (newView.periodicityTolerance == 0)
+				&& (oldView.maxIter == newView.maxIter || (oldView.maxIter < newView.maxIter && FractalCalculator.canResume(newView.precision)));
+	}
+
+	// copy the samples of an old calculation that coincide with uncalculated samples of a new one, and return the number copied
+	// (see fill() for the orbit stores; oldOrbits must be sorted, and no longer added to, e.g. a snapshot)
+	static int copySamples(FractalView oldView, double[] oldFractal, OrbitStore oldOrbits, FractalView newView, double[] newFractal,
+			OrbitStore newOrbits, OrbitStore resume) {
+		if(!isCompatible(oldView, newView)) {
+			return 0;
+		}
+
+		// scale of new pixels in old pixels; new pixels are only aligned with old ones if this is a power of two
+		double scale = newView.pixelSize/oldView.pixelSize;
+		if(scale != Math.scalb(1.0, Math.getExponent(scale)) || 1/scale > MAX_SCALE_PERIOD) {
+			return 0;
+		}
+		int period = scale >= 1 ? 1 : (int)(1/scale);	// new pixels per old pixel, so the alignment repeats every period new pixels
+
+		// position of the new center in old image space, from the exact difference between the centers
+		double dR = newView.centerXPrecise.subtract(oldView.centerXPrecise).doubleValue();
+		double dI = newView.centerYPrecise.subtract(oldView.centerYPrecise).doubleValue();
+		double p2 = oldView.pixelSize*oldView.pixelSize;
+		double u = oldView.widthPixels/2 + (dR*oldView.stepXR + dI*oldView.stepXI)/p2;	// steps are orthogonal with length pixelSize
+		double v = oldView.heightPixels/2 + (dR*oldView.stepYR + dI*oldView.stepYI)/p2;
+
+		// new image point (x, y) is at old image point (tx + scale*x, ty + scale*y)
+		double tx = u - scale*(newView.widthPixels/2);
+		double ty = v - scale*(newView.heightPixels/2);
+
+		// for each pair of new and old samples, and each alignment of the new pixel within the period, copy if the samples coincide
+		int copied = 0;
+		for(int k = 0; k < newView.samplesPerPixel; k++) {
+			for(int m = 0; m < oldView.samplesPerPixel; m++) {
+				for(int rx = 0; rx < period; rx++) {
+					// sample k of new pixel (rx + period*c, ...) is at old image x = fx + oldView.sampleOffsetX[m] + c (for integer c)
+					double fx = tx + scale*(rx + newView.sampleOffsetX[k]) - oldView.sampleOffsetX[m];
+					if(Math.abs(fx - Math.rint(fx)) > SAMPLE_MATCH_TOLERANCE) {
+						continue;
+					}
+					for(int ry = 0; ry < period; ry++) {
+						double fy = ty + scale*(ry + newView.sampleOffsetY[k]) - oldView.sampleOffsetY[m];
+						if(Math.abs(fy - Math.rint(fy)) > SAMPLE_MATCH_TOLERANCE) {
+							continue;
+						}
+						copied += copyAligned(oldView, oldFractal, oldOrbits, m, (int)Math.rint(fx), (int)Math.rint(fy),
+								newView, newFractal, newOrbits, resume, k, rx, ry, period, (int)Math.max(1, scale));
+					}
+				}
+			}
+		}
+		return copied;
+	}
+
+	// copy sample m of old pixel (ax + step*c, ay + step*d) to sample k of new pixel (rx + period*c, ry + period*d) for every c and d
+	// where the old pixel is in range, the old sample was calculated and the new one wasn't; returns the number of samples copied
+	// (old samples that reached a lower maxIter aren't copied, but resumed if their last z_n was kept)
+	static int copyAligned(FractalView oldView, double[] oldFractal, OrbitStore oldOrbits, int m, int ax, int ay,
+			FractalView newView, double[] newFractal, OrbitStore newOrbits, OrbitStore resume, int k, int rx, int ry, int period, int step) {
+		int copied = 0;
+		for(int j = ry, b = ay; j < newView.heightPixels; j += period, b += step) {
+			if(b < 0 || b >= oldView.heightPixels) {
+				continue;
+			}
+			for(int i = rx, a = ax; i < newView.widthPixels; i += period, a += step) {
+				if(a < 0 || a >= oldView.widthPixels || (!oldView.mirrorExact && oldView.isMirrorCopy(a, b))) {
+					continue;	// (a copy of a mirror pixel has the reflection of the sample pattern, so its samples are elsewhere)
+				}
+				int newIndex = newView.getSampleIndex(i, j, k);
+				int oldIndex = oldView.getSampleIndex(a, b, m);
+				double value = oldFractal[oldIndex];
+				if(newFractal[newIndex] != FractalCalculator.NOT_CALCULATED || value == FractalCalculator.NOT_CALCULATED) {
+					continue;
+				}
+				if(value == FractalCalculator.REACHED_MAXITER) {
+					int entry = oldOrbits.find(oldIndex);
+					OrbitStore target = oldView.maxIter == newView.maxIter ? newOrbits : resume;
+					if(entry >= 0 && target != null) {
+						target.add(newIndex, oldOrbits.re[entry], oldOrbits.im[entry], oldOrbits.iterations[entry]);
+					}
+					if(oldView.maxIter < newView.maxIter) {
+						continue;	// left to be resumed (or recalculated, if its z_n wasn't kept)
+					}
+				}
+				newFractal[newIndex] = value;
+				copied++;
+			}
+		}
+		return copied;
+	}
+}
@@ -0,0 +1,42 @@
+import java.awt.geom.Point2D;
+
+/* class SamplePattern:
+ * - generates the sub-pixel offsets of antialiasing samples, for any number of samples per pixel
+ *     - offsets are the R2 low-discrepancy sequence (steps of the inverse powers of the plastic number, modulo 1), wrapped into the
+ *       pixel [-0.5, 0.5) x [-0.5, 0.5), so they cover the pixel more evenly than random points do with the same number of samples
+ *     - the pattern of n samples is the first n points of the one sequence, and every prefix of it is itself evenly spread, so passes
+ *       that add samples a few at a time (e.g. adaptive antialiasing) keep the samples they already have, and patterns of different
+ *       sizes share samples (see SampleCache)
+ *     - the first sample is at the pixel's position, the same point as the only sample of a view without antialiasing
+ */
+
+/* TODO:
+ * - decorrelate the patterns of neighbouring pixels (e.g. a Cranley-Patterson shift per pixel) once FractalView can give each pixel
+ *   offsets of its own; for now every pixel of a view shares one pattern, which SampleCache and mirroring rely on
+ */
+
+public class SamplePattern {
+
+	static int MAX_SAMPLES = 256;		// largest number of samples per pixel
+	static final double PLASTIC = 1.32471795724474602596;	// real root of x^3 = x + 1
+	static final double STEP_X = 1/PLASTIC;					// step of the sequence in each coordinate
+	static final double STEP_Y = 1/(PLASTIC*PLASTIC);
+
+	// offsets of the first n samples of the sequence (pixels, relative to the pixel's position)
+	static Point2D.Double[] getOffsets(int n) {
+		if(n < 1 || n > MAX_SAMPLES) {
+			throw new IllegalArgumentException("Illegal arguments passed to SamplePattern.getOffsets: n out of range");
+		}
+		Point2D.Double[] offsets = new Point2D.Double[n];
+		for(int k = 0; k < n; k++) {
+			offsets[k] = new Point2D.Double(getOffset(k, STEP_X), getOffset(k, STEP_Y));
+		}
+		return offsets;
+	}
+
+	// coordinate of sample k of the sequence with a step, in [-0.5, 0.5) (sample 0 is at 0)
+	static double getOffset(int k, double step) {
+		double x = 0.5 + k*step;
+		return x - Math.floor(x) - 0.5;
+	}
+}
@@ -0,0 +1,197 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/* class TileCoordinator:
+ * - hands the tiles of a FractalRenderer render out to TileWorker processes over sockets, and collects their pixel values
+ *     - each worker is sent the render's parameters once, then one tile at a time; it calculates the tile's sub-view of the same view
+ *       (see FractalView.getSubView) with the same kernels, so the values are the same as if they were calculated here
+ *     - one thread per worker takes tiles from a shared queue, so faster workers calculate more tiles
+ *     - if a worker fails (connection error, malformed reply, or no reply within READ_TIMEOUT), its tile goes back on the queue for
+ *       the other workers, and the worker is dropped for the rest of the render
+ *     - tiles left once every worker has failed are left to the caller to calculate
+ * - protocol (big-endian, see DataOutputStream):
+ *     - coordinator: MAGIC, VERSION, the render's parameters (see FractalRenderer.writeParameters); worker: MAGIC
+ *     - then for each tile, coordinator: x0, y0, width, height; worker: the number of values, the value of each pixel of the tile
+ *       row by row, then the N_COUNTS counts of the calculation (see FractalCalculator.COUNT_ constants)
+ *     - the coordinator ends the session by sending x0 = -1 (or closing the connection)
+ */
+
+public class TileCoordinator {
+
+	static final int MAGIC = 0x46524354;	// "FRCT"
+	static final int VERSION = 2;
+	static int CONNECT_TIMEOUT = 10000;		// time to wait for a worker to accept a connection (ms)
+	static int READ_TIMEOUT = 600000;		// time to wait for a worker's reply, after which it counts as failed (ms)
+
+	int tileSize;							// largest width of a tile (tiles of a band are tileSize apart)
+	int widthPixels;						// image width
+	List<Worker> workers = new ArrayList<Worker>();	// workers that haven't failed
+	ExecutorService executor;				// one thread per worker, to wait for its replies
+
+	// constructor: connect to each worker and send it the render's parameters (workers that can't be reached are left out)
+	TileCoordinator(FractalRenderer renderer, FractalView view, int tileSize, String[] addresses) {
+		this.tileSize = tileSize;
+		widthPixels = view.widthPixels;
+		for(String address : addresses) {
+			try {
+				workers.add(new Worker(address, renderer));
+			} catch(IOException | IllegalArgumentException e) {
+				System.err.println(String.format("Warning: couldn't connect to worker %s (%s); leaving it out", address, e.getMessage()));
+			}
+		}
+		System.out.println(String.format("Connected to %s of %s workers", workers.size(), addresses.length));
+		executor = Executors.newFixedThreadPool(Math.max(1, workers.size()), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	// calculate the tiles of the band of rows [y0, y0 + height) that aren't skipped on the workers, putting the values of tile t (at
+	// x0 = t*tileSize) in values[t]; tiles that no worker could calculate are left null
+	void calculateTiles(final int y0, final int height, boolean[] skip, final double[][] values, final long[] counts) {
+		final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<Integer>();
+		for(int t = 0; t < skip.length; t++) {
+			if(!skip[t]) {
+				queue.add(t);
+			}
+		}
+
+		// hand tiles out until they're all done, or every worker has failed (a worker that fails puts its tile back, possibly after the
+		// others have run out of tiles, so hand out again until the queue stays empty)
+		while(!queue.isEmpty() && !workers.isEmpty()) {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for(final Worker worker : workers) {
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						Integer t;
+						while((t = queue.poll()) != null) {
+							int x0 = t*tileSize;
+							try {
+								values[t] = worker.calculateTile(x0, y0, Math.min(tileSize, widthPixels - x0), height, counts);
+							} catch(IOException e) {
+								System.err.println(String.format("Warning: worker %s failed (%s); reassigning tile (%s, %s)", worker.address,
+										e, x0, y0));
+								queue.add(t);
+								worker.close();
+								return null;
+							}
+						}
+						return null;
+					}
+				});
+			}
+			try {
+				executor.invokeAll(tasks);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			for(int w = workers.size() - 1; w >= 0; w--) {
+				if(workers.get(w).failed) {
+					workers.remove(w);
+				}
+			}
+		}
+	}
+
+	// end the session with each worker
+	void close() {
+		for(Worker worker : workers) {
+			try {
+				worker.out.writeInt(-1);
+				worker.out.flush();
+			} catch(IOException e) {
+				// (the worker's already gone)
+			}
+			worker.close();
+		}
+		workers.clear();
+		executor.shutdown();
+	}
+
+	/* class Worker:
+	 * - a connection to one TileWorker
+	 */
+	static class Worker {
+		String address;			// host:port
+		Socket socket;
+		DataInputStream in;
+		DataOutputStream out;
+		boolean failed;			// set once the connection has failed
+
+		// constructor: connect, and send the render's parameters
+		Worker(String address, FractalRenderer renderer) throws IOException {
+			this.address = address;
+			int colon = address.lastIndexOf(':');
+			if(colon < 0) {
+				throw new IllegalArgumentException("Illegal arguments passed to TileCoordinator.Worker constructor: address must be HOST:PORT");
+			}
+			socket = new Socket();
+			socket.connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))), CONNECT_TIMEOUT);
+			socket.setSoTimeout(READ_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			renderer.writeParameters(out);
+			out.flush();
+			if(in.readInt() != MAGIC) {
+				close();
+				throw new IOException("not a TileWorker");
+			}
+		}
+
+		// calculate a tile on the worker, adding its counts to counts; returns the value of each pixel, row by row
+		double[] calculateTile(int x0, int y0, int width, int height, long[] counts) throws IOException {
+			out.writeInt(x0);
+			out.writeInt(y0);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.flush();
+			int n = in.readInt();
+			if(n != width*height) {
+				throw new IOException(String.format("expected %s values, got %s", width*height, n));
+			}
+			double[] values = new double[n];
+			for(int p = 0; p < n; p++) {
+				values[p] = in.readDouble();
+			}
+			long[] tileCounts = new long[FractalCalculator.N_COUNTS];
+			for(int c = 0; c < FractalCalculator.N_COUNTS; c++) {
+				tileCounts[c] = in.readLong();
+			}
+			synchronized(counts) {
+				for(int c = 0; c < FractalCalculator.N_COUNTS; c++) {
+					counts[c] += tileCounts[c];
+				}
+			}
+			return values;
+		}
+
+		// close the connection, marking the worker as failed
+		void close() {
+			failed = true;
+			try {
+				socket.close();
+			} catch(IOException e) {
+				// (nothing more to do)
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/* class TileWorker:
+ * - calculates tiles of FractalRenderer renders for a TileCoordinator on another process or machine (see TileCoordinator for the protocol)
+ *     - main() listens on a port, and serves each coordinator that connects on a thread of its own
+ *     - every session calculates its tiles on one shared FractalScheduler, so concurrent sessions share this machine's threads
+ *       (each session's parameters, including its solver, are kept by a FractalRenderer of its own, not by the scheduler)
+ *     - tiles are calculated by FractalRenderer.calculateTileValues, so a worker's values are the same as the coordinator's own
+ */
+
+public class TileWorker {
+
+	static int DEFAULT_PORT = 7341;
+
+	FractalScheduler scheduler;		// pool shared by all sessions
+
+	// constructor: create the shared pool
+	TileWorker(int nThreads) {
+		scheduler = new FractalScheduler(nThreads);
+	}
+
+	// serve coordinators from the command line
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		try {
+			for(int n = 0; n + 1 < args.length; n += 2) {
+				switch(args[n]) {
+					case "--port":
+						port = Integer.parseInt(args[n + 1]);
+						break;
+					case "--threads":
+						nThreads = Integer.parseInt(args[n + 1]);
+						break;
+					default:
+						throw new IllegalArgumentException(String.format("Illegal argument passed to TileWorker: unknown option %s", args[n]));
+				}
+			}
+			if(args.length%2 != 0) {
+				throw new IllegalArgumentException(String.format("Illegal argument passed to TileWorker: %s needs a value", args[args.length - 1]));
+			}
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java TileWorker [--port N] [--threads N]");
+			System.exit(1);
+		}
+
+		TileWorker worker = new TileWorker(nThreads);
+		try {
+			worker.serve(port);
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	// accept coordinators until the process is stopped
+	void serve(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port);
+		System.out.println(String.format("TileWorker listening on port %s (%s threads)", server.getLocalPort(), scheduler.nThreads));
+		while(true) {
+			final Socket socket = server.accept();
+			new Thread(new Runnable() {
+				public void run() {
+					serveSession(socket);
+				}
+			}).start();
+		}
+	}
+
+	// calculate the tiles a coordinator asks for, until it ends the session
+	void serveSession(Socket socket) {
+		String client = socket.getRemoteSocketAddress().toString();
+		int nTiles = 0;
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			if(in.readInt() != TileCoordinator.MAGIC || in.readInt() != TileCoordinator.VERSION) {
+				throw new IOException("not a TileCoordinator of this version");
+			}
+			FractalRenderer renderer = new FractalRenderer(scheduler);
+			renderer.readParameters(in);
+			FractalView view = renderer.createView();
+			out.writeInt(TileCoordinator.MAGIC);
+			out.flush();
+			System.out.println(String.format("Session with %s: %sx%s pixels, %s precision", client, view.widthPixels, view.heightPixels,
+					FractalCalculator.PRECISION_NAMES[view.precision]));
+
+			double[] scratch = new double[view.samplesPerPixel];
+			while(true) {
+				int x0 = in.readInt();
+				if(x0 < 0) {
+					break;
+				}
+				int y0 = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				if(y0 < 0 || width < 1 || height < 1 || x0 + width > view.widthPixels || y0 + height > view.heightPixels) {
+					throw new IOException(String.format("tile (%s, %s) %sx%s is outside the view", x0, y0, width, height));
+				}
+				long[] counts = new long[FractalCalculator.N_COUNTS];
+				double[] values = renderer.calculateTileValues(view, x0, y0, width, height, counts, scratch);
+				out.writeInt(values.length);
+				for(double value : values) {
+					out.writeDouble(value);
+				}
+				for(long count : counts) {
+					out.writeLong(count);
+				}
+				out.flush();
+				nTiles++;
+			}
+		} catch(EOFException e) {
+			// (the coordinator closed the connection)
+		} catch(IOException | IllegalArgumentException e) {
+			System.err.println(String.format("Session with %s failed: %s", client, e));
+		}
+		try {
+			socket.close();
+		} catch(IOException e) {
+			// (nothing more to do)
+		}
+		System.out.println(String.format("Session with %s ended after %s tiles", client, nTiles));
+	}
+}